@@ -151,4 +151,12 @@ keyValueConfigs:
 {{- else }}
   []
 {{- end }}
+{{- with .Values.streamTemplates }}
+streamTemplates:
+{{ toYaml . | indent 2 }}
+{{- end }}
+{{- with .Values.keyValueTemplates }}
+keyValueTemplates:
+{{ toYaml . | indent 2 }}
+{{- end }}
 {{- end }}
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.RetentionPolicy;
+import io.nats.client.api.StorageType;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Synthetic fleets used by the benchmarks.
+ * <p>
+ * With a change ratio, one entity out of {@code 1 / changeRatio} differs between the desired state and the server,
+ * in turn updated (other replicas on the server), created (missing on the server) or deleted (no longer desired).
+ */
+public final class BenchmarkFleets {
+
+  private BenchmarkFleets() {
+    // no instantiation
+  }
+
+  public static String yamlConfig(int streams, int keyValues) {
+    StringBuilder yaml = new StringBuilder(streams * 160 + keyValues * 120 + 64);
+    yaml.append("streamConfigs:\n");
+    for (int i = 0; i < streams; i++) {
+      yaml.append("  - streamName: stream").append(i).append('\n')
+          .append("    subjects:\n")
+          .append("      - tenant").append(i).append(".orders.>\n")
+          .append("      - tenant").append(i).append(".events.>\n")
+          .append("    storage: file\n")
+          .append("    replicas: 3\n")
+          .append("    retention: limits\n")
+          .append("    maxAge: 3600\n");
+    }
+    yaml.append("keyValueConfigs:\n");
+    for (int i = 0; i < keyValues; i++) {
+      yaml.append("  - name: bucket").append(i).append('\n')
+          .append("    storage: memory\n")
+          .append("    replicas: 3\n")
+          .append("    maxHistoryPerKey: 5\n")
+          .append("    timeToLiveInSeconds: 600\n");
+    }
+    return yaml.toString();
+  }
+
+  /**
+   * Writes the config the way the helm chart renders it: a single line of base64.
+   */
+  public static Path writeEncodedConfig(Path directory, String fileName, String yaml) throws IOException {
+    Path file = directory.resolve(fileName);
+    Files.write(file, Base64.getEncoder().encode(yaml.getBytes(StandardCharsets.UTF_8)));
+    return file;
+  }
+
+  public static List<StreamConfig> desiredStreams(int fleet, double changeRatio) {
+    List<StreamConfig> streams = new ArrayList<>(fleet);
+    for (int i = 0; i < fleet; i++) {
+      if (changeKind(i, changeRatio) != Change.DELETED) {
+        streams.add(streamConfig(i));
+      }
+    }
+    return streams;
+  }
+
+  public static List<StreamInfo> serverStreams(int fleet, double changeRatio) {
+    List<StreamInfo> streams = new ArrayList<>(fleet);
+    for (int i = 0; i < fleet; i++) {
+      Change change = changeKind(i, changeRatio);
+      if (change != Change.CREATED) {
+        StreamConfiguration configuration = streamConfiguration(streamConfig(i), change == Change.UPDATED ? 1 : 3);
+        streams.add(InMemoryJetStream.streamInfo(configuration));
+      }
+    }
+    return streams;
+  }
+
+  public static List<KeyValueConfig> desiredKeyValues(int fleet, double changeRatio) {
+    List<KeyValueConfig> keyValues = new ArrayList<>(fleet);
+    for (int i = 0; i < fleet; i++) {
+      if (changeKind(i, changeRatio) != Change.DELETED) {
+        keyValues.add(keyValueConfig(i));
+      }
+    }
+    return keyValues;
+  }
+
+  public static List<KeyValueConfiguration> serverKeyValues(int fleet, double changeRatio) {
+    List<KeyValueConfiguration> keyValues = new ArrayList<>(fleet);
+    for (int i = 0; i < fleet; i++) {
+      Change change = changeKind(i, changeRatio);
+      if (change != Change.CREATED) {
+        keyValues.add(keyValueConfiguration(keyValueConfig(i), change == Change.UPDATED ? 1 : 3));
+      }
+    }
+    return keyValues;
+  }
+
+  public static StreamConfig streamConfig(int i) {
+    StreamConfig streamConfig = new StreamConfig();
+    streamConfig.setStreamName("stream" + i);
+    streamConfig.setSubjects(List.of("tenant" + i + ".orders.>", "tenant" + i + ".events.>"));
+    streamConfig.setStorage("file");
+    streamConfig.setReplicas(3);
+    streamConfig.setRetention("limits");
+    streamConfig.setMaxAge(3600);
+    return streamConfig;
+  }
+
+  public static KeyValueConfig keyValueConfig(int i) {
+    KeyValueConfig keyValueConfig = new KeyValueConfig();
+    keyValueConfig.setName("bucket" + i);
+    keyValueConfig.setStorage("memory");
+    keyValueConfig.setReplicas(3);
+    keyValueConfig.setMaxHistoryPerKey(5);
+    keyValueConfig.setTimeToLiveInSeconds(600);
+    return keyValueConfig;
+  }
+
+  public static StreamConfiguration streamConfiguration(StreamConfig streamConfig, int replicas) {
+    return StreamConfiguration.builder()
+        .name(streamConfig.getStreamName())
+        .subjects(streamConfig.getSubjects())
+        .storageType(StorageType.get(streamConfig.getStorage()))
+        .replicas(replicas)
+        .retentionPolicy(RetentionPolicy.get(streamConfig.getRetention()))
+        .maxAge(Duration.ofSeconds(streamConfig.getMaxAge()))
+        .build();
+  }
+
+  public static KeyValueConfiguration keyValueConfiguration(KeyValueConfig keyValueConfig, int replicas) {
+    return KeyValueConfiguration.builder()
+        .name(keyValueConfig.getName())
+        .storageType(StorageType.get(keyValueConfig.getStorage()))
+        .replicas(replicas)
+        .maxHistoryPerKey(keyValueConfig.getMaxHistoryPerKey())
+        .ttl(Duration.ofSeconds(keyValueConfig.getTimeToLiveInSeconds()))
+        .build();
+  }
+
+  private static Change changeKind(int i, double changeRatio) {
+    if (changeRatio <= 0) {
+      return Change.NONE;
+    }
+    int step = Math.max(1, (int) Math.round(1 / changeRatio));
+    if (i % step != 0) {
+      return Change.NONE;
+    }
+    return Change.values()[1 + (i / step) % 3];
+  }
+
+  private enum Change {
+    NONE, UPDATED, CREATED, DELETED
+  }
+}
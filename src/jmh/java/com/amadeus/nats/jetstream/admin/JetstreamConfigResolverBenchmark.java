@@ -0,0 +1,166 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Cost of reading and parsing the config file once it changed. Run with {@code -prof gc}: {@code gc.alloc.rate.norm}
+ * gives the bytes allocated per resolve for the former read-all-lines path and for the streaming one.
+ * <p>
+ * {@code resolveChanged} measures {@link JetstreamConfigResolver#resolveConfig()} on a file rewritten before each call
+ * with {@code changeRatio} of its streams changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JetstreamConfigResolverBenchmark {
+
+  private static final String FILE_NAME = "jetstream-configs.txt";
+
+  @Param({"100", "10000", "100000"})
+  int streams;
+
+  private Path directory;
+
+  private Path file;
+
+  private JetstreamConfigResolver resolver;
+
+  private ObjectMapper legacyMapper;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory("jetstream-config-benchmark");
+    this.file = BenchmarkFleets.writeEncodedConfig(this.directory, FILE_NAME,
+        BenchmarkFleets.yamlConfig(this.streams, this.streams / 10));
+    this.resolver = new JetstreamConfigResolver(this.directory.toString(), FILE_NAME);
+
+    this.legacyMapper = new ObjectMapper(new YAMLFactory());
+    this.legacyMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    this.legacyMapper.findAndRegisterModules();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(this.file);
+    Files.deleteIfExists(this.directory);
+  }
+
+  /**
+   * The decoding done before the streaming path: lines, joined string, decoded bytes and decoded string.
+   */
+  @Benchmark
+  public JetstreamConfigs readAllLines() throws IOException {
+    String config = new String(Base64.getDecoder().decode(Files.readAllLines(this.file).stream()
+        .collect(Collectors.joining(""))), StandardCharsets.UTF_8);
+    return this.legacyMapper.readValue(config, JetstreamConfigs.class);
+  }
+
+  @Benchmark
+  public JetstreamConfigs streaming() throws IOException {
+    try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+      ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return this.resolver.parse(content);
+    }
+  }
+
+  /**
+   * Steady state: the file did not change, the previous parse is reused.
+   */
+  @Benchmark
+  public JetstreamConfigs unchanged() {
+    return this.resolver.resolveConfig();
+  }
+
+  @Benchmark
+  public JetstreamConfigs resolveChanged(ChangingFile changingFile) {
+    return changingFile.resolver.resolveConfig();
+  }
+
+  /**
+   * A config file alternating between two versions, rewritten before each call.
+   */
+  @State(Scope.Benchmark)
+  public static class ChangingFile {
+
+    @Param({"0.01"})
+    double changeRatio;
+
+    private Path directory;
+
+    private byte[][] contents;
+
+    private int nextContent;
+
+    private JetstreamConfigResolver resolver;
+
+    @Setup(Level.Trial)
+    public void setUp(JetstreamConfigResolverBenchmark benchmark) throws IOException {
+      this.directory = Files.createTempDirectory("jetstream-config-benchmark");
+      String yaml = BenchmarkFleets.yamlConfig(benchmark.streams, benchmark.streams / 10);
+      int changed = Math.max(1, (int) (benchmark.streams * this.changeRatio));
+      this.contents = new byte[][] {
+          Base64.getEncoder().encode(yaml.getBytes(StandardCharsets.UTF_8)),
+          Base64.getEncoder().encode(changedReplicas(yaml, changed).getBytes(StandardCharsets.UTF_8))};
+      this.resolver = new JetstreamConfigResolver(this.directory.toString(), FILE_NAME);
+    }
+
+    @Setup(Level.Invocation)
+    public void changeFile() throws IOException {
+      Files.write(this.directory.resolve(FILE_NAME), this.contents[this.nextContent]);
+      this.nextContent ^= 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      Files.deleteIfExists(this.directory.resolve(FILE_NAME));
+      Files.deleteIfExists(this.directory);
+    }
+
+    /**
+     * The first {@code changed} streams of the fleet with one replica instead of three.
+     */
+    private static String changedReplicas(String yaml, int changed) {
+      StringBuilder replaced = new StringBuilder();
+      int from = 0;
+      for (int i = 0; i < changed; i++) {
+        int index = yaml.indexOf("replicas: 3\n", from);
+        if (index < 0) {
+          break;
+        }
+        replaced.append(yaml, from, index).append("replicas: 1\n");
+        from = index + "replicas: 3\n".length();
+      }
+      return replaced.append(yaml, from, yaml.length()).toString();
+    }
+  }
+}
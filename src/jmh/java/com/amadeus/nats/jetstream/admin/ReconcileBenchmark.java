@@ -0,0 +1,171 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end wall time of a full {@link JetstreamUpdatesScheduler#updateStreams()} run against the
+ * {@link InMemoryJetStream} stand-in, with a latency per API call:
+ * <ul>
+ *   <li>coldStart: empty server, every entity is created</li>
+ *   <li>steadyState: server in sync, nothing to write</li>
+ *   <li>massChange: every entity differs from the server and is updated</li>
+ * </ul>
+ * The API calls per run are reported as a secondary result, run with {@code -prof gc} for the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReconcileBenchmark {
+
+  @Param({"10000"})
+  int fleet;
+
+  @Param({"0", "100"})
+  long apiLatencyMicros;
+
+  @Param({"1", "16"})
+  int applyConcurrency;
+
+  @Param({JetstreamUpdatesScheduler.INVENTORY_FULL, JetstreamUpdatesScheduler.INVENTORY_NAMES})
+  String inventory;
+
+  private InMemoryJetStream jetStream;
+
+  private NatsConnection natsConnection;
+
+  private JetstreamConfigs configs;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class ApiCalls {
+
+    public long apiCalls;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      this.apiCalls = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.jetStream = new InMemoryJetStream().withLatency(Duration.ofNanos(this.apiLatencyMicros * 1000));
+    this.natsConnection = this.jetStream.natsConnection(this.applyConcurrency);
+    this.configs = new JetstreamConfigs();
+    for (int i = 0; i < this.fleet; i++) {
+      this.configs.getStreamConfigs().add(BenchmarkFleets.streamConfig(i));
+    }
+    for (int i = 0; i < this.fleet / 10; i++) {
+      this.configs.getKeyValueConfigs().add(BenchmarkFleets.keyValueConfig(i));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.natsConnection.close();
+  }
+
+  /**
+   * Seeds the server, with the given replicas for every entity or empty when 0, and starts a new scheduler so that
+   * nothing is known from a previous run.
+   */
+  void prepareRun(int replicas) {
+    this.jetStream.clear();
+    if (replicas > 0) {
+      for (StreamConfig streamConfig : this.configs.getStreamConfigs()) {
+        this.jetStream.putStream(BenchmarkFleets.streamConfiguration(streamConfig, replicas));
+      }
+      for (KeyValueConfig keyValueConfig : this.configs.getKeyValueConfigs()) {
+        this.jetStream.putKeyValue(BenchmarkFleets.keyValueConfiguration(keyValueConfig, replicas));
+      }
+    }
+    this.scheduler = new JetstreamUpdatesScheduler(this.natsConnection, () -> this.configs,
+        new ReconcileSnapshotStore(Optional.empty()), new UpdateStager(this.natsConnection),
+        new ServerStateCache(this.natsConnection), new LeaderElection(), new ShardMembership(),
+        new ReconcileTargets(), new SimpleMeterRegistry(), false, Duration.ofMinutes(30), Duration.ofMinutes(5),
+        Duration.ofMinutes(5), this.inventory, Duration.ofSeconds(1), Duration.ofMinutes(5), 10);
+    this.jetStream.resetCalls();
+  }
+
+  private void run(ApiCalls apiCalls) {
+    this.scheduler.updateStreams();
+    apiCalls.apiCalls += this.jetStream.getTotalCalls();
+  }
+
+  @Benchmark
+  public void coldStart(ColdServer server, ApiCalls apiCalls) {
+    run(apiCalls);
+  }
+
+  @Benchmark
+  public void steadyState(SyncedServer server, ApiCalls apiCalls) {
+    run(apiCalls);
+  }
+
+  @Benchmark
+  public void massChange(ChangedServer server, ApiCalls apiCalls) {
+    run(apiCalls);
+  }
+
+  /**
+   * Empty server, every entity is created.
+   */
+  @State(Scope.Benchmark)
+  public static class ColdServer {
+
+    @Setup(Level.Invocation)
+    public void prepare(ReconcileBenchmark benchmark) {
+      benchmark.prepareRun(0);
+    }
+  }
+
+  /**
+   * Server in sync with the desired replicas.
+   */
+  @State(Scope.Benchmark)
+  public static class SyncedServer {
+
+    @Setup(Level.Invocation)
+    public void prepare(ReconcileBenchmark benchmark) {
+      benchmark.prepareRun(3);
+    }
+  }
+
+  /**
+   * Every entity found with 1 replica instead of the desired 3.
+   */
+  @State(Scope.Benchmark)
+  public static class ChangedServer {
+
+    @Setup(Level.Invocation)
+    public void prepare(ReconcileBenchmark benchmark) {
+      benchmark.prepareRun(1);
+    }
+  }
+}
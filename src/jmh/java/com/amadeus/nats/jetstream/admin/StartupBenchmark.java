@@ -0,0 +1,103 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of a restart: a single call in a fresh JVM, class loading and initialization included, repeated in several
+ * forks. Nothing is warm, as after a pod restart:
+ * <ul>
+ *   <li>startup: the config file is parsed and the reconcile pipeline is created</li>
+ *   <li>firstReconcile: then the first full reconcile against an empty {@link InMemoryJetStream}</li>
+ * </ul>
+ * The gain of a class data sharing archive is measured by running it again with
+ * {@code -jvmArgsAppend -XX:SharedArchiveFile=<archive>}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+
+  private static final String FILE_NAME = "jetstream-configs.txt";
+
+  @Param({"100", "10000"})
+  int streams;
+
+  private Path directory;
+
+  private Path file;
+
+  private InMemoryJetStream jetStream;
+
+  private NatsConnection natsConnection;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory("jetstream-startup-benchmark");
+    this.file = BenchmarkFleets.writeEncodedConfig(this.directory, FILE_NAME,
+        BenchmarkFleets.yamlConfig(this.streams, this.streams / 10));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (this.scheduler != null) {
+      this.scheduler.close();
+    }
+    if (this.natsConnection != null) {
+      this.natsConnection.close();
+    }
+    Files.deleteIfExists(this.file);
+    Files.deleteIfExists(this.directory);
+  }
+
+  /**
+   * The beans created at startup, wired as the container does.
+   */
+  private JetstreamUpdatesScheduler start() {
+    JetstreamConfigResolver resolver = new JetstreamConfigResolver(this.directory.toString(), FILE_NAME);
+    this.jetStream = new InMemoryJetStream();
+    this.natsConnection = this.jetStream.natsConnection(8);
+    this.scheduler = new JetstreamUpdatesScheduler(this.natsConnection, resolver,
+        new ReconcileSnapshotStore(Optional.empty()), new UpdateStager(this.natsConnection),
+        new ServerStateCache(this.natsConnection), new LeaderElection(), new ShardMembership(),
+        new ReconcileTargets(), new SimpleMeterRegistry(), true, Duration.ofMinutes(30), Duration.ofMinutes(5),
+        Duration.ofMinutes(5), JetstreamUpdatesScheduler.INVENTORY_FULL, Duration.ofSeconds(1),
+        Duration.ofMinutes(5), 10);
+    return this.scheduler;
+  }
+
+  @Benchmark
+  public JetstreamUpdatesScheduler startup() {
+    return start();
+  }
+
+  @Benchmark
+  public int firstReconcile() {
+    start().updateStreams();
+    return this.jetStream.size();
+  }
+}
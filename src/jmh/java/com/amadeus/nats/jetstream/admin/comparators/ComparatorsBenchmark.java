@@ -0,0 +1,98 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import com.amadeus.nats.jetstream.admin.BenchmarkFleets;
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of diffing the desired state with the server, for the whole plan and for the conversions of the desired
+ * entities to server configurations. {@code changeRatio} is the share of entities which differ (see
+ * {@link BenchmarkFleets}). Run with {@code -prof gc} to get the allocation per diff.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComparatorsBenchmark {
+
+  @Param({"100", "10000", "100000"})
+  int fleet;
+
+  @Param({"0", "0.01", "0.1"})
+  double changeRatio;
+
+  private List<StreamConfig> desiredStreams;
+
+  private List<StreamInfo> serverStreams;
+
+  private List<KeyValueConfig> desiredKeyValues;
+
+  private List<KeyValueConfiguration> serverKeyValues;
+
+  private FingerprintCache streamFingerprints;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.desiredStreams = BenchmarkFleets.desiredStreams(this.fleet, this.changeRatio);
+    this.serverStreams = BenchmarkFleets.serverStreams(this.fleet, this.changeRatio);
+    this.desiredKeyValues = BenchmarkFleets.desiredKeyValues(this.fleet, this.changeRatio);
+    this.serverKeyValues = BenchmarkFleets.serverKeyValues(this.fleet, this.changeRatio);
+
+    // steady state of the scheduler: the entities in sync are known from the previous diff
+    this.streamFingerprints = new FingerprintCache();
+    ReconcilePlanner.planStreams(this.serverStreams, this.desiredStreams, true, this.streamFingerprints);
+  }
+
+  /**
+   * What the scheduler runs for streams: creations, updates and deletions at once.
+   */
+  @Benchmark
+  public ReconcilePlan<StreamConfiguration> planStreams() {
+    return ReconcilePlanner.planStreams(this.serverStreams, this.desiredStreams, true);
+  }
+
+  @Benchmark
+  public ReconcilePlan<StreamConfiguration> planStreamsWithFingerprints() {
+    return ReconcilePlanner.planStreams(this.serverStreams, this.desiredStreams, true, this.streamFingerprints);
+  }
+
+  @Benchmark
+  public ReconcilePlan<KeyValueConfiguration> planKeyValues() {
+    return ReconcilePlanner.planKeyValues(this.serverKeyValues, this.desiredKeyValues, true);
+  }
+
+  @Benchmark
+  public void toStreamConfig(Blackhole blackhole) {
+    for (StreamConfig streamConfig : this.desiredStreams) {
+      blackhole.consume(StreamConfigComparator.toStreamConfig(streamConfig));
+    }
+  }
+
+  @Benchmark
+  public void toKeyValueConfig(Blackhole blackhole) {
+    for (KeyValueConfig keyValueConfig : this.desiredKeyValues) {
+      blackhole.consume(KeyValueConfigComparator.toKeyValueConfig(keyValueConfig));
+    }
+  }
+}
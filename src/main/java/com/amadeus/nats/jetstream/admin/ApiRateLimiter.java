@@ -0,0 +1,117 @@
+package com.amadeus.nats.jetstream.admin;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Token bucket in front of the JetStream management API: at most {@code permitsPerSecond} calls per second on average,
+ * with bursts of up to {@code burst} calls after an idle period. Callers over the budget wait for their turn, in
+ * arrival order.
+ */
+final class ApiRateLimiter {
+
+  private final long intervalNanos;
+
+  private final long burstNanos;
+
+  private final AtomicInteger queued = new AtomicInteger();
+
+  private long nextPermitNanos;
+
+  private Counter throttled;
+
+  private Timer waits;
+
+  /**
+   * @param permitsPerSecond average rate, unlimited when 0 or less
+   * @param burst number of calls which can be made at once after an idle period
+   */
+  ApiRateLimiter(double permitsPerSecond, int burst) {
+    this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+    this.burstNanos = this.intervalNanos * Math.max(1, burst);
+    // the whole burst is available at start
+    this.nextPermitNanos = System.nanoTime() - this.burstNanos;
+  }
+
+  static ApiRateLimiter unlimited() {
+    return new ApiRateLimiter(0, 1);
+  }
+
+  ApiRateLimiter register(MeterRegistry registry, String kind) {
+    return register(registry, kind, ReconcileTargets.DEFAULT_TARGET);
+  }
+
+  /**
+   * Registers the number of calls waiting for a permit, the number of calls which had to wait and their wait time.
+   */
+  ApiRateLimiter register(MeterRegistry registry, String kind, String target) {
+    Gauge.builder("jetstream.api.calls.queued", this.queued, AtomicInteger::get)
+        .description("JetStream API calls waiting for the rate limiter")
+        .tag("kind", kind)
+        .tag("target", target)
+        .register(registry);
+    this.throttled = Counter.builder("jetstream.api.calls.throttled")
+        .description("JetStream API calls delayed by the rate limiter")
+        .tag("kind", kind)
+        .tag("target", target)
+        .register(registry);
+    this.waits = Timer.builder("jetstream.api.calls.wait")
+        .description("Time spent by JetStream API calls waiting for the rate limiter")
+        .tag("kind", kind)
+        .tag("target", target)
+        .register(registry);
+    return this;
+  }
+
+  /**
+   * Waits until a call is allowed. Reported as an {@link InterruptedIOException}, like the API calls it protects, when
+   * interrupted while waiting.
+   */
+  void acquire() throws InterruptedIOException {
+    acquire(1);
+  }
+
+  /**
+   * Waits until the given number of calls is allowed, at once when it is 0.
+   */
+  void acquire(int permits) throws InterruptedIOException {
+    if (this.intervalNanos == 0 || permits <= 0) {
+      return;
+    }
+    long waitNanos = reserve(permits);
+    if (waitNanos <= 0) {
+      return;
+    }
+    if (this.throttled != null) {
+      this.throttled.increment();
+      this.waits.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+    this.queued.incrementAndGet();
+    try {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the JetStream API rate limiter");
+    } finally {
+      this.queued.decrementAndGet();
+    }
+  }
+
+  /**
+   * Takes the next permits and returns how long to wait for the last one. Unused permits are kept up to the burst.
+   */
+  private synchronized long reserve(int permits) {
+    long now = System.nanoTime();
+    if (this.nextPermitNanos - (now - this.burstNanos + this.intervalNanos) < 0) {
+      this.nextPermitNanos = now - this.burstNanos + this.intervalNanos;
+    }
+    this.nextPermitNanos += this.intervalNanos * permits;
+    return this.nextPermitNanos - this.intervalNanos - now;
+  }
+}
@@ -0,0 +1,64 @@
+package com.amadeus.nats.jetstream.admin;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a buffer (usually a memory mapped config file) without copying it to the heap. For base64 text the line
+ * breaks can be dropped, so that the result can be fed to a basic {@link java.util.Base64.Decoder#wrap(InputStream)}
+ * like a single-line text.
+ */
+final class ByteBufferInputStream extends InputStream {
+
+  private final ByteBuffer buffer;
+
+  private final boolean skipLineBreaks;
+
+  ByteBufferInputStream(ByteBuffer buffer, boolean skipLineBreaks) {
+    this.buffer = buffer;
+    this.skipLineBreaks = skipLineBreaks;
+  }
+
+  @Override
+  public int read() {
+    while (this.buffer.hasRemaining()) {
+      byte b = this.buffer.get();
+      if (!isSkipped(b)) {
+        return b & 0xFF;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int read(byte[] target, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    if (!this.buffer.hasRemaining()) {
+      return -1;
+    }
+    if (!this.skipLineBreaks) {
+      int count = Math.min(length, this.buffer.remaining());
+      this.buffer.get(target, offset, count);
+      return count;
+    }
+    int count = 0;
+    while (count < length && this.buffer.hasRemaining()) {
+      byte b = this.buffer.get();
+      if (!isSkipped(b)) {
+        target[offset + count++] = b;
+      }
+    }
+    return count == 0 && !this.buffer.hasRemaining() ? -1 : count;
+  }
+
+  @Override
+  public int available() {
+    return this.buffer.remaining();
+  }
+
+  private boolean isSkipped(byte b) {
+    return this.skipLineBreaks && (b == '\n' || b == '\r');
+  }
+}
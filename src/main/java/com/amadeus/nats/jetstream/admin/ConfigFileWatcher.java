@@ -0,0 +1,175 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration mount path and triggers a reconcile as soon as the configuration file changes, instead of
+ * waiting for the next scheduler tick.
+ * <p>
+ * Kubernetes does not modify a mounted ConfigMap file in place: it writes a new timestamped directory and atomically
+ * swaps the {@code ..data} symlink to it. Events on that symlink are therefore considered as a change of the file.
+ */
+@ApplicationScoped
+@Slf4j
+public class ConfigFileWatcher {
+
+  static final String KUBERNETES_DATA_LINK = "..data";
+
+  private static final int MAX_DEBOUNCE_ROUNDS = 10;
+
+  private final JetstreamUpdatesScheduler scheduler;
+
+  private final Path mountPath;
+
+  private final String fileName;
+
+  private final boolean shardsEnabled;
+
+  private final boolean enabled;
+
+  private final Duration debounce;
+
+  private WatchService watchService;
+
+  private Thread watcherThread;
+
+  @Inject
+  public ConfigFileWatcher(JetstreamUpdatesScheduler scheduler,
+      @ConfigProperty(name = "config.mount.path") String mountPath,
+      @ConfigProperty(name = "config.fileName") String fileName,
+      @ConfigProperty(name = "config.source", defaultValue = JetstreamConfigSources.FILE) String source,
+      @ConfigProperty(name = "config.shards.enabled", defaultValue = "false") boolean shardsEnabled,
+      @ConfigProperty(name = "config.watch.enabled", defaultValue = "true") boolean enabled,
+      @ConfigProperty(name = "config.watch.debounce", defaultValue = "200ms") Duration debounce) {
+    this.scheduler = scheduler;
+    this.mountPath = Paths.get(mountPath);
+    this.fileName = fileName;
+    this.shardsEnabled = shardsEnabled;
+    this.enabled = enabled && JetstreamConfigSources.FILE.equals(source);
+    this.debounce = debounce;
+  }
+
+  void onStart(@Observes StartupEvent event) {
+    if (this.enabled) {
+      start();
+    } else {
+      log.info("Config file watcher disabled");
+    }
+  }
+
+  void onStop(@Observes ShutdownEvent event) {
+    stop();
+  }
+
+  synchronized void start() {
+    if (this.watchService != null) {
+      return;
+    }
+    if (!Files.isDirectory(this.mountPath)) {
+      log.warn("Config mount path {} is not a directory, config file watcher not started", this.mountPath);
+      return;
+    }
+    try {
+      this.watchService = FileSystems.getDefault().newWatchService();
+      this.mountPath.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    } catch (IOException e) {
+      log.error("Unable to watch the config mount path " + this.mountPath, e);
+      closeWatchService();
+      return;
+    }
+    this.watcherThread = new Thread(this::watchLoop, "config-file-watcher");
+    this.watcherThread.setDaemon(true);
+    this.watcherThread.start();
+    log.info("Watching {} for config changes", this.mountPath);
+  }
+
+  synchronized void stop() {
+    if (this.watcherThread != null) {
+      this.watcherThread.interrupt();
+      this.watcherThread = null;
+    }
+    closeWatchService();
+  }
+
+  private void watchLoop() {
+    WatchService service = this.watchService;
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        if (drainRelevantEvents(service.take())) {
+          waitForQuietPeriod(service);
+          log.info("Config change detected in {}, triggering a reconcile", this.mountPath);
+          this.scheduler.updateStreams();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ClosedWatchServiceException e) {
+        return;
+      } catch (RuntimeException e) {
+        log.error("Reconcile triggered by a config change failed", e);
+      }
+    }
+  }
+
+  /**
+   * Swallows the burst of events produced by a single update (several files and symlinks are touched by kubelet) so
+   * that only one reconcile is triggered. Bounded so that a constantly changing directory still gets reconciled.
+   */
+  private void waitForQuietPeriod(WatchService service) throws InterruptedException {
+    WatchKey next;
+    int rounds = 0;
+    while (rounds++ < MAX_DEBOUNCE_ROUNDS
+        && (next = service.poll(this.debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+      drainRelevantEvents(next);
+    }
+  }
+
+  private boolean drainRelevantEvents(WatchKey key) {
+    boolean relevant = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || isRelevant((Path) event.context())) {
+        relevant = true;
+      }
+    }
+    key.reset();
+    return relevant;
+  }
+
+  boolean isRelevant(Path changed) {
+    String name = changed.getFileName().toString();
+    if (KUBERNETES_DATA_LINK.equals(name)) {
+      return true;
+    }
+    return this.shardsEnabled ? !name.startsWith(".") : this.fileName.equals(name);
+  }
+
+  private void closeWatchService() {
+    if (this.watchService != null) {
+      try {
+        this.watchService.close();
+      } catch (IOException e) {
+        log.warn("Unable to close the config file watcher", e);
+      }
+      this.watchService = null;
+    }
+  }
+}
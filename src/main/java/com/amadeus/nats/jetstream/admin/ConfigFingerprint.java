@@ -0,0 +1,56 @@
+package com.amadeus.nats.jetstream.admin;
+
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+/**
+ * Identity of a config file content: size, modification time and file key are cheap to read and used as a first
+ * check, the digest of the raw bytes confirms whether the content really changed.
+ */
+final class ConfigFingerprint {
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private final long size;
+
+  private final FileTime lastModifiedTime;
+
+  private final Object fileKey;
+
+  private final byte[] digest;
+
+  private ConfigFingerprint(BasicFileAttributes attributes, byte[] digest) {
+    this.size = attributes.size();
+    this.lastModifiedTime = attributes.lastModifiedTime();
+    this.fileKey = attributes.fileKey();
+    this.digest = digest;
+  }
+
+  static ConfigFingerprint of(BasicFileAttributes attributes, ByteBuffer content) {
+    MessageDigest messageDigest = newDigest();
+    messageDigest.update(content);
+    return new ConfigFingerprint(attributes, messageDigest.digest());
+  }
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(DIGEST_ALGORITHM + " not available", e);
+    }
+  }
+
+  boolean hasSameAttributes(BasicFileAttributes attributes) {
+    return this.size == attributes.size()
+        && this.lastModifiedTime.equals(attributes.lastModifiedTime())
+        && Objects.equals(this.fileKey, attributes.fileKey());
+  }
+
+  boolean hasSameContent(ConfigFingerprint other) {
+    return other != null && MessageDigest.isEqual(this.digest, other.digest);
+  }
+}
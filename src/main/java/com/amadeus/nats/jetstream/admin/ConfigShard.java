@@ -0,0 +1,39 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+
+import java.nio.file.Path;
+
+/**
+ * One parsed config file, kept with its fingerprint so that it is only parsed again when its content changes.
+ */
+final class ConfigShard {
+
+  private final Path path;
+
+  private final ConfigFingerprint fingerprint;
+
+  private final JetstreamConfigs configs;
+
+  ConfigShard(Path path, ConfigFingerprint fingerprint, JetstreamConfigs configs) {
+    this.path = path;
+    this.fingerprint = fingerprint;
+    this.configs = configs;
+  }
+
+  Path getPath() {
+    return this.path;
+  }
+
+  ConfigFingerprint getFingerprint() {
+    return this.fingerprint;
+  }
+
+  JetstreamConfigs getConfigs() {
+    return this.configs;
+  }
+
+  ConfigShard withFingerprint(ConfigFingerprint newFingerprint) {
+    return new ConfigShard(this.path, newFingerprint, this.configs);
+  }
+}
@@ -1,61 +1,304 @@
 package com.amadeus.nats.jetstream.admin;
 
 import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
 import jakarta.inject.Inject;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @ApplicationScoped
+@Typed(JetstreamConfigResolver.class)
 @Slf4j
-public class JetstreamConfigResolver {
+public class JetstreamConfigResolver implements JetstreamConfigSource {
 
   private String configPath;
 
-  private ObjectMapper mapper;
+  private Path shardsDirectory;
+
+  private ObjectReader reader;
+
+  private ExecutorService shardsExecutor;
+
+  private final TemplateExpander templates;
+
+  private Map<Path, ConfigShard> lastShards = new LinkedHashMap<>();
+
+  private JetstreamConfigs lastConfigs;
+
+  public JetstreamConfigResolver(String jetStreamConfigPath, String fileName) {
+    this(jetStreamConfigPath, fileName, false, 1);
+  }
+
+  public JetstreamConfigResolver(String jetStreamConfigPath, String fileName, boolean shardsEnabled,
+      int shardsParallelism) {
+    this(jetStreamConfigPath, fileName, shardsEnabled, shardsParallelism, TemplateExpander.DEFAULT_MAX_VALUES);
+  }
 
   @Inject
   public JetstreamConfigResolver(@ConfigProperty(name = "config.mount.path") String jetStreamConfigPath,
-      @ConfigProperty(name = "config.fileName") String fileName) {
-    this.mapper = new ObjectMapper(new YAMLFactory());
-    this.mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+      @ConfigProperty(name = "config.fileName") String fileName,
+      @ConfigProperty(name = "config.shards.enabled", defaultValue = "false") boolean shardsEnabled,
+      @ConfigProperty(name = "config.shards.parallelism", defaultValue = "4") int shardsParallelism,
+      @ConfigProperty(name = "config.templates.max-values", defaultValue = "10000") int templateMaxValues) {
+    this.templates = new TemplateExpander(templateMaxValues);
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
     mapper.findAndRegisterModules();
+    this.reader = mapper.readerFor(JetstreamConfigs.class);
 
     this.configPath = jetStreamConfigPath + "/" + fileName;
+    if (shardsEnabled) {
+      this.shardsDirectory = Paths.get(jetStreamConfigPath);
+      AtomicInteger threads = new AtomicInteger();
+      this.shardsExecutor = Executors.newFixedThreadPool(Math.max(1, shardsParallelism), runnable -> {
+        Thread thread = new Thread(runnable, "config-shard-parser-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  @PreDestroy
+  void close() {
+    if (this.shardsExecutor != null) {
+      this.shardsExecutor.shutdownNow();
+    }
   }
 
-  public JetstreamConfigs resolveConfig() {
+  /**
+   * Returns the config described by the file, or by all the files of the mount path when shards are enabled. As long
+   * as no file content changes, the previously built instance is returned, so that callers can detect an unchanged
+   * config by identity.
+   */
+  @Override
+  public synchronized JetstreamConfigs resolveConfig() {
     JetstreamConfigs jetstreamConfigs = null;
     try {
-      Path filePath = Paths.get(this.configPath);
-      String config = new String(Base64.getDecoder().decode(Files.readAllLines(filePath).stream()
-          .collect(Collectors.joining(""))), StandardCharsets.UTF_8);
+      List<Path> files = this.shardsDirectory == null ? List.of(Paths.get(this.configPath)) : listShards();
 
-      log.debug("Jetstream config read again");
+      Map<Path, ConfigShard> shards = refreshShards(files);
 
-      jetstreamConfigs = this.mapper.readValue(config, JetstreamConfigs.class);
-
-      if (CollectionUtils.isEmpty(jetstreamConfigs.getStreamConfigs())) {
-        jetstreamConfigs.setStreamConfigs(new ArrayList<>());
+      if (this.lastConfigs != null && isUnchanged(shards)) {
+        log.debug("Jetstream config unchanged since last read");
+        this.lastShards = shards;
+        return this.lastConfigs;
       }
 
+      this.templates.retainAll(shards.values().stream().map(ConfigShard::getConfigs).collect(Collectors.toList()));
+
+      jetstreamConfigs = this.shardsDirectory == null ? shards.values().iterator().next().getConfigs() : merge(shards);
+
+      this.lastShards = shards;
+      this.lastConfigs = jetstreamConfigs;
+
     } catch (IOException | IllegalArgumentException e) {
       log.error("Unable to parse the config provided", e);
     }
     return jetstreamConfigs;
   }
 
+  private List<Path> listShards() throws IOException {
+    try (Stream<Path> entries = Files.list(this.shardsDirectory)) {
+      // kubernetes configmap mounts expose hidden ..data and timestamped directories next to the files
+      List<Path> shards = entries.filter(path -> !path.getFileName().toString().startsWith("."))
+          .filter(Files::isRegularFile)
+          .sorted()
+          .collect(Collectors.toList());
+      // an empty directory is much more likely a mount issue than a wish to delete everything
+      if (shards.isEmpty()) {
+        throw new IOException("No config shard found in " + this.shardsDirectory);
+      }
+      return shards;
+    }
+  }
+
+  private Map<Path, ConfigShard> refreshShards(List<Path> files) throws IOException {
+    Map<Path, ConfigShard> shards = new LinkedHashMap<>();
+    if (files.size() == 1 || this.shardsExecutor == null) {
+      for (Path file : files) {
+        shards.put(file, refreshShard(file, this.lastShards.get(file)));
+      }
+      return shards;
+    }
+
+    List<CompletableFuture<ConfigShard>> refreshes = files.stream()
+        .map(file -> CompletableFuture.supplyAsync(() -> {
+          try {
+            return refreshShard(file, this.lastShards.get(file));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }, this.shardsExecutor))
+        .collect(Collectors.toList());
+    try {
+      for (CompletableFuture<ConfigShard> refresh : refreshes) {
+        ConfigShard shard = refresh.join();
+        shards.put(shard.getPath(), shard);
+      }
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      if (e.getCause() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getCause();
+      }
+      throw e;
+    }
+    return shards;
+  }
+
+  /**
+   * Returns the previous shard when the file did not change, parses it again otherwise.
+   */
+  private ConfigShard refreshShard(Path file, ConfigShard previous) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    if (previous != null && previous.getFingerprint().hasSameAttributes(attributes)) {
+      return previous;
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      ConfigFingerprint fingerprint = ConfigFingerprint.of(attributes, content.duplicate());
+      if (previous != null && fingerprint.hasSameContent(previous.getFingerprint())) {
+        log.debug("Jetstream config {} touched but content unchanged", file);
+        return previous.withFingerprint(fingerprint);
+      }
+
+      log.debug("Jetstream config {} read again", file);
+
+      try {
+        JetstreamConfigs jetstreamConfigs = parse(content);
+        this.templates.expand(jetstreamConfigs);
+        return new ConfigShard(file, fingerprint, jetstreamConfigs);
+      } catch (IOException | IllegalArgumentException e) {
+        throw new IOException("Unable to parse config file " + file, e);
+      }
+    }
+  }
+
+  private boolean isUnchanged(Map<Path, ConfigShard> shards) {
+    if (!shards.keySet().equals(this.lastShards.keySet())) {
+      return false;
+    }
+    for (ConfigShard shard : shards.values()) {
+      if (shard.getConfigs() != this.lastShards.get(shard.getPath()).getConfigs()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Merges the shards into a single config, refusing a stream or a bucket defined by two shards: names are compared
+   * ignoring case, as the comparators do.
+   */
+  private static JetstreamConfigs merge(Map<Path, ConfigShard> shards) {
+    JetstreamConfigs merged = new JetstreamConfigs();
+    Map<String, String> streamOwners = new HashMap<>();
+    Map<String, String> keyValueOwners = new HashMap<>();
+
+    for (ConfigShard shard : shards.values()) {
+      String owner = shard.getPath().getFileName().toString();
+      for (StreamConfig streamConfig : shard.getConfigs().getStreamConfigs()) {
+        checkNotOwned(streamOwners, "Stream", streamConfig.getStreamName(), owner);
+        merged.getStreamConfigs().add(streamConfig);
+      }
+      if (shard.getConfigs().getKeyValueConfigs() != null) {
+        for (KeyValueConfig keyValueConfig : shard.getConfigs().getKeyValueConfigs()) {
+          checkNotOwned(keyValueOwners, "KeyValue", keyValueConfig.getName(), owner);
+          merged.getKeyValueConfigs().add(keyValueConfig);
+        }
+      }
+    }
+    log.debug("{} config shards merged: {} streams, {} keyValues", shards.size(), merged.getStreamConfigs().size(),
+        merged.getKeyValueConfigs().size());
+    return merged;
+  }
+
+  /**
+   * Records the owner of the name, ignoring case.
+   *
+   * @throws IllegalArgumentException when another owner already defines it
+   */
+  static void checkNotOwned(Map<String, String> owners, String type, String name, String owner) {
+    String previous = owners.putIfAbsent(name.toLowerCase(Locale.ROOT), owner);
+    if (previous != null) {
+      throw new IllegalArgumentException(type + " " + name + " is defined both in " + previous + " and in " + owner);
+    }
+  }
+
+  /**
+   * Decodes and parses the config as a stream: the content is never copied as a whole on the heap, only the resulting
+   * objects are allocated. The content is either base64 text of the YAML, base64 text of a gzip or zstd compressed
+   * YAML, or a raw gzip or zstd compressed YAML (configmap binaryData), detected by magic bytes.
+   */
+  JetstreamConfigs parse(ByteBuffer content) throws IOException {
+    try (InputStream yaml = openPayload(content)) {
+      JetstreamConfigs jetstreamConfigs = this.reader.readValue(yaml);
+
+      if (CollectionUtils.isEmpty(jetstreamConfigs.getStreamConfigs())) {
+        jetstreamConfigs.setStreamConfigs(new ArrayList<>());
+      }
+      return jetstreamConfigs;
+    }
+  }
+
+  private static InputStream openPayload(ByteBuffer content) throws IOException {
+    byte[] head = new byte[PayloadCompression.MAGIC_MAX_LENGTH];
+    int headLength = Math.min(head.length, content.remaining());
+    content.duplicate().get(head, 0, headLength);
+    PayloadCompression compression = PayloadCompression.detect(head, headLength);
+    if (compression != null) {
+      log.debug("Raw {} compressed config", compression);
+      return compression.decompress(new ByteBufferInputStream(content, false));
+    }
+
+    InputStream decoded = new BufferedInputStream(
+        Base64.getDecoder().wrap(new ByteBufferInputStream(content, true)));
+    decoded.mark(head.length);
+    headLength = decoded.readNBytes(head, 0, head.length);
+    decoded.reset();
+    compression = PayloadCompression.detect(head, headLength);
+    if (compression != null) {
+      log.debug("Base64 encoded {} compressed config", compression);
+      return compression.decompress(decoded);
+    }
+    return decoded;
+  }
+
 }
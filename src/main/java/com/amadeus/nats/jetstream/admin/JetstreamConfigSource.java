@@ -0,0 +1,25 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+
+import java.util.Set;
+
+/**
+ * Provider of the desired state reconciled by {@link JetstreamUpdatesScheduler}: the mounted config file or a NATS key
+ * value bucket, selected by {@code config.source}.
+ */
+public interface JetstreamConfigSource {
+
+  /**
+   * Returns the desired state, the very same instance as long as it did not change, or null when the source cannot
+   * provide a trustworthy state.
+   */
+  JetstreamConfigs resolveConfig();
+
+  /**
+   * Names of the key value buckets used by the source itself, never deleted by the reconcile.
+   */
+  default Set<String> getReservedKeyValues() {
+    return Set.of();
+  }
+}
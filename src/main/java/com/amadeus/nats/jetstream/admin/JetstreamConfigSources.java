@@ -0,0 +1,35 @@
+package com.amadeus.nats.jetstream.admin;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.enterprise.inject.Produces;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Selects the {@link JetstreamConfigSource} from {@code config.source}.
+ */
+@ApplicationScoped
+@Slf4j
+public class JetstreamConfigSources {
+
+  static final String FILE = "file";
+
+  static final String KEY_VALUE = "kv";
+
+  @Produces
+  @ApplicationScoped
+  JetstreamConfigSource configSource(@ConfigProperty(name = "config.source", defaultValue = FILE) String source,
+      Instance<JetstreamConfigResolver> fileSource, Instance<KeyValueConfigSource> keyValueSource) {
+    switch (source) {
+      case FILE:
+        return fileSource.get();
+      case KEY_VALUE:
+        log.info("Desired state read from a NATS key value bucket");
+        return keyValueSource.get();
+      default:
+        throw new IllegalArgumentException("Unknown config.source " + source + ", expected " + FILE + " or "
+            + KEY_VALUE);
+    }
+  }
+}
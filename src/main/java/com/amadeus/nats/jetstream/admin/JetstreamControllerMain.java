@@ -0,0 +1,104 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.quarkus.runtime.Quarkus;
+import io.quarkus.runtime.QuarkusApplication;
+import io.quarkus.runtime.annotations.QuarkusMain;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+
+/**
+ * Entry point. Without argument the controller runs as a service, reconciling on schedule and on changes. With the
+ * {@code reconcile-once} argument, e.g. in a CI pipeline, a kubernetes Job or a helm hook, it resolves the config, runs
+ * a single full reconcile of every target and exits, with the {@code oneshot} profile which disables the HTTP server,
+ * the scheduler and every background watch.
+ * <p>
+ * The exit status is {@link #APPLIED} when every stream and bucket was applied, {@link #FAILED} when some could not be
+ * or when no config was found, {@link #NOT_CONNECTED} when NATS could not be reached in time. The one-shot mode reads
+ * the config file only: a config bucket is loaded asynchronously by its watch, which the one-shot mode does not run.
+ */
+@QuarkusMain
+@Slf4j
+public class JetstreamControllerMain implements QuarkusApplication {
+
+  static final String RECONCILE_ONCE = "reconcile-once";
+
+  static final String ONE_SHOT_PROFILE = "oneshot";
+
+  static final String DEFAULT_PROFILE = "prod";
+
+  static final int APPLIED = 0;
+
+  static final int FAILED = 1;
+
+  static final int NOT_CONNECTED = 2;
+
+  private final NatsConnection nc;
+
+  private final JetstreamUpdatesScheduler scheduler;
+
+  private final Duration connectTimeout;
+
+  private final String source;
+
+  @Inject
+  public JetstreamControllerMain(NatsConnection nc, JetstreamUpdatesScheduler scheduler,
+      @ConfigProperty(name = "reconcile.once.connect-timeout", defaultValue = "30s") Duration connectTimeout,
+      @ConfigProperty(name = "config.source", defaultValue = JetstreamConfigSources.FILE) String source) {
+    this.nc = nc;
+    this.scheduler = scheduler;
+    this.connectTimeout = connectTimeout;
+    this.source = source;
+  }
+
+  public static void main(String... args) {
+    if (isReconcileOnce(args)) {
+      // the profile has to be active before the runtime config is read, HTTP and scheduler included
+      System.setProperty("quarkus.profile",
+          oneShotProfiles(System.getProperty("quarkus.profile", System.getenv("QUARKUS_PROFILE"))));
+    }
+    Quarkus.run(JetstreamControllerMain.class, args);
+  }
+
+  /**
+   * The active profiles plus {@code oneshot}, the packaged application running with {@code prod} when none is set.
+   */
+  static String oneShotProfiles(String profiles) {
+    return (profiles == null || profiles.isBlank() ? DEFAULT_PROFILE : profiles) + "," + ONE_SHOT_PROFILE;
+  }
+
+  static boolean isReconcileOnce(String... args) {
+    return args.length > 0 && RECONCILE_ONCE.equals(args[0]);
+  }
+
+  @Override
+  public int run(String... args) throws InterruptedException {
+    if (!isReconcileOnce(args)) {
+      Quarkus.waitForExit();
+      return APPLIED;
+    }
+    return reconcileOnce();
+  }
+
+  int reconcileOnce() throws InterruptedException {
+    if (!JetstreamConfigSources.FILE.equals(this.source)) {
+      log.error("The one-shot reconcile reads the config file only, config.source={} is not supported", this.source);
+      return FAILED;
+    }
+    long start = System.nanoTime();
+    if (!this.nc.awaitConnection(this.connectTimeout)) {
+      log.error("Unable to connect to NATS within {}, nothing reconciled", this.connectTimeout);
+      return NOT_CONNECTED;
+    }
+    boolean applied = this.scheduler.reconcileOnce();
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    if (applied) {
+      log.info("Reconciled in {} ms", elapsedMillis);
+      return APPLIED;
+    }
+    log.error("Reconcile failed after {} ms, see the errors above", elapsedMillis);
+    return FAILED;
+  }
+}
@@ -1,38 +1,326 @@
 package com.amadeus.nats.jetstream.admin;
 
-import com.amadeus.nats.jetstream.admin.comparators.KeyValueConfigComparator;
-import com.amadeus.nats.jetstream.admin.comparators.StreamConfigComparator;
+import com.amadeus.nats.jetstream.admin.comparators.EntityFingerprint;
+import com.amadeus.nats.jetstream.admin.comparators.FingerprintCache;
+import com.amadeus.nats.jetstream.admin.comparators.InventoryDiff;
+import com.amadeus.nats.jetstream.admin.comparators.ReconcilePlan;
+import com.amadeus.nats.jetstream.admin.comparators.ReconcilePlanner;
 import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
 import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.Priority;
+import com.amadeus.nats.jetstream.admin.model.ReconcileSnapshot;
 import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.nats.client.JetStreamApiException;
 import io.nats.client.api.KeyValueConfiguration;
 import io.nats.client.api.StreamConfiguration;
 import io.nats.client.api.StreamInfo;
 import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 @ApplicationScoped
 @Slf4j
 public class JetstreamUpdatesScheduler {
 
+  /**
+   * Whole server listed with the configuration and state of every stream and bucket.
+   */
+  static final String INVENTORY_FULL = "full";
+
+  /**
+   * Names listed first, the configurations then looked up page by page for the desired entities only.
+   */
+  static final String INVENTORY_NAMES = "names";
+
+  /**
+   * Desired entities of a kind above which the names inventory lists the whole server anyway: each existing entity is
+   * looked up by its own info request, which costs more than the paginated listing for a large fleet.
+   */
+  static final int INVENTORY_BY_NAME_MAX = 512;
+
+  private static final int INVENTORY_PAGE_SIZE = 256;
+
   private final NatsConnection nc;
 
-  private final JetstreamConfigResolver streamConf;
+  private final JetstreamConfigSource streamConf;
+
+  private final ReconcileSnapshotStore snapshotStore;
+
+  private final UpdateStager updateStager;
+
+  private final ServerStateCache serverState;
+
+  private final LeaderElection leaderElection;
+
+  private final ShardMembership shards;
+
+  private final ReconcileTargets targets;
+
+  private final MeterRegistry registry;
+
+  private final String target;
+
+  private final boolean skipUnchanged;
+
+  private final boolean inventoryByName;
+
+  private final long fullResyncIntervalNanos;
+
+  private final long warmStartResyncDelayNanos;
+
+  private final long warmStartResyncJitterNanos;
+
+  private final Duration initialBackoff;
+
+  private final Duration maxBackoff;
+
+  private final int maxAttempts;
+
+  private final Counter skippedReconciles;
+
+  private final Counter executedReconciles;
+
+  private final Counter failedReconciles;
+
+  private final Timer reconcileDuration;
+
+  private final FingerprintCache streamFingerprints = new FingerprintCache();
+
+  private final FingerprintCache keyValueFingerprints = new FingerprintCache();
+
+  private final ReconcileQueue queue;
+
+  /**
+   * Streams of the last apply whose staged update is still catching up or waits for a wave, checked again by the next
+   * run rather than retried by the queue.
+   */
+  private final Set<String> stagedStreams = new HashSet<>();
+
+  private volatile JetstreamConfigs prioritizedConfigs;
+
+  private volatile Map<String, Priority> streamPriorities = Map.of();
+
+  private volatile Map<String, Priority> keyValuePriorities = Map.of();
+
+  private ReconcileSnapshot warmStartSnapshot;
+
+  private JetstreamConfigs lastReconciledConfigs;
+
+  private long lastServerChangeIndicator;
+
+  private long lastShardVersion;
+
+  private long nextFullResyncNanos;
 
   @Inject
-  public JetstreamUpdatesScheduler(NatsConnection nc, JetstreamConfigResolver streamConf) {
+  public JetstreamUpdatesScheduler(NatsConnection nc, JetstreamConfigSource streamConf,
+      ReconcileSnapshotStore snapshotStore, UpdateStager updateStager, ServerStateCache serverState,
+      LeaderElection leaderElection, ShardMembership shards, ReconcileTargets targets, MeterRegistry registry,
+      @ConfigProperty(name = "reconcile.skip-unchanged", defaultValue = "false") boolean skipUnchanged,
+      @ConfigProperty(name = "reconcile.full-resync-interval", defaultValue = "30m") Duration fullResyncInterval,
+      @ConfigProperty(name = "reconcile.snapshot.full-resync-delay", defaultValue = "5m") Duration warmStartResyncDelay,
+      @ConfigProperty(name = "reconcile.snapshot.full-resync-jitter", defaultValue = "5m") Duration warmStartResyncJitter,
+      @ConfigProperty(name = "reconcile.inventory", defaultValue = INVENTORY_FULL) String inventory,
+      @ConfigProperty(name = "reconcile.queue.backoff.initial", defaultValue = "1s") Duration initialBackoff,
+      @ConfigProperty(name = "reconcile.queue.backoff.max", defaultValue = "5m") Duration maxBackoff,
+      @ConfigProperty(name = "reconcile.queue.max-attempts", defaultValue = "10") int maxAttempts) {
     this.nc = nc;
     this.streamConf = streamConf;
+    this.snapshotStore = snapshotStore;
+    this.updateStager = updateStager;
+    this.serverState = serverState;
+    this.leaderElection = leaderElection;
+    this.shards = shards;
+    this.targets = targets;
+    this.registry = registry;
+    this.target = ReconcileTargets.DEFAULT_TARGET;
+    this.skipUnchanged = skipUnchanged;
+    this.inventoryByName = INVENTORY_NAMES.equalsIgnoreCase(inventory);
+    this.fullResyncIntervalNanos = fullResyncInterval.toNanos();
+    this.warmStartResyncDelayNanos = warmStartResyncDelay.toNanos();
+    this.warmStartResyncJitterNanos = warmStartResyncJitter.toNanos();
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+    this.maxAttempts = maxAttempts;
+    this.warmStartSnapshot = snapshotStore.load().orElse(null);
+    this.queue = new ReconcileQueue(this::reconcileEntities, this::priorityOf, initialBackoff, maxBackoff, maxAttempts,
+        registry, this.target);
+    this.skippedReconciles = runs(registry, "skipped", this.target);
+    this.executedReconciles = runs(registry, "executed", this.target);
+    this.failedReconciles = runs(registry, "failed", this.target);
+    this.reconcileDuration = duration(registry, this.target);
+    nc.onReconnect(this::resyncAfterReconnect);
+    if (!nc.isConnected()) {
+      // the runs fail until NATS answers, the first one is run as soon as it does
+      nc.onConnect(this::updateStreams);
+    }
+  }
+
+  /**
+   * Pipeline of another target, with the same desired state and settings applied through its own connection. The
+   * snapshot of the last applied state and the advisories are those of the default target only.
+   */
+  private JetstreamUpdatesScheduler(JetstreamUpdatesScheduler primary, NatsConnection nc, String target) {
+    this.nc = nc;
+    this.streamConf = primary.streamConf;
+    this.snapshotStore = new ReconcileSnapshotStore(Optional.empty());
+    this.updateStager = primary.updateStager.withConnection(nc);
+    this.serverState = new ServerStateCache(nc);
+    this.leaderElection = primary.leaderElection;
+    this.shards = primary.shards;
+    this.targets = new ReconcileTargets();
+    this.registry = primary.registry;
+    this.target = target;
+    this.skipUnchanged = primary.skipUnchanged;
+    this.inventoryByName = primary.inventoryByName;
+    this.fullResyncIntervalNanos = primary.fullResyncIntervalNanos;
+    this.warmStartResyncDelayNanos = primary.warmStartResyncDelayNanos;
+    this.warmStartResyncJitterNanos = primary.warmStartResyncJitterNanos;
+    this.initialBackoff = primary.initialBackoff;
+    this.maxBackoff = primary.maxBackoff;
+    this.maxAttempts = primary.maxAttempts;
+    this.queue = new ReconcileQueue(this::reconcileEntities, this::priorityOf, this.initialBackoff, this.maxBackoff,
+        this.maxAttempts, this.registry, target);
+    this.skippedReconciles = runs(this.registry, "skipped", target);
+    this.executedReconciles = runs(this.registry, "executed", target);
+    this.failedReconciles = runs(this.registry, "failed", target);
+    this.reconcileDuration = duration(this.registry, target);
+    nc.onReconnect(this::resyncAfterReconnect);
+  }
+
+  private static Counter runs(MeterRegistry registry, String result, String target) {
+    return Counter.builder("jetstream.reconcile.runs")
+        .description("Reconcile runs, skipped when neither the config nor the server changed, failed when an entity "
+            + "could not be applied")
+        .tag("result", result)
+        .tag("target", target)
+        .register(registry);
+  }
+
+  private static Timer duration(MeterRegistry registry, String target) {
+    return Timer.builder("jetstream.reconcile.duration")
+        .description("Duration of the reconcile runs, skipped ones included")
+        .tag("target", target)
+        .register(registry);
   }
 
-  @Scheduled(every = "${scheduler}")
-  void updateStreams() {
+  /**
+   * Reconcile pipeline of another cluster, account or domain, applying the same desired state.
+   */
+  JetstreamUpdatesScheduler forTarget(NatsConnection targetConnection, String targetName) {
+    return new JetstreamUpdatesScheduler(this, targetConnection, targetName);
+  }
+
+  String getTarget() {
+    return this.target;
+  }
+
+  @PreDestroy
+  void close() {
+    this.queue.close();
+  }
+
+  /**
+   * Queues the given entities for a targeted reconcile, e.g. after a change of some keys of the config bucket or of
+   * the server. Returns at once, the entities are reconciled in the background by priority, once each even when
+   * triggered several times, and retried with backoff on failure.
+   */
+  public void enqueue(Set<String> streamNames, Set<String> keyValueNames) {
+    this.queue.enqueue(streamNames, keyValueNames);
+    this.targets.enqueue(streamNames, keyValueNames);
+  }
+
+  /**
+   * Starts a full run of this target once its connection comes back, so that what changed meanwhile, e.g. streams
+   * lost by a restarted server, is repaired within seconds instead of at the next run. A single listing of the server
+   * costs less than a lookup of every managed entity, and the advisories missed meanwhile are caught up by it. Run in
+   * the background, as the client thread dispatching the connection events must not block.
+   */
+  void resyncAfterReconnect() {
+    this.serverState.invalidate();
+    if (this.prioritizedConfigs == null) {
+      // nothing reconciled yet, the next run does it all
+      return;
+    }
+    log.info("Reconnected, resyncing target {}", this.target);
+    Thread thread = new Thread(this::resync, "nats-reconnected");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * A full run of this target only, without skip.
+   */
+  private synchronized void resync() {
+    this.lastReconciledConfigs = null;
+    run();
+  }
+
+  /**
+   * Reconciles the default target, the other targets being reconciled at the same time by their own pipelines.
+   */
+  @Scheduled(every = "${scheduler}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+  synchronized void updateStreams() {
+    this.targets.reconcileAll(this);
+    run();
+  }
+
+  /**
+   * A single full reconcile of the default target then of the other ones, without warm start nor skip, returning
+   * whether every entity of every target was applied. Used by the one-shot mode, where nothing runs in the background.
+   */
+  synchronized boolean reconcileOnce() {
+    if (this.streamConf.resolveConfig() == null) {
+      log.error("No configuration found, nothing reconciled");
+      return false;
+    }
+    this.warmStartSnapshot = null;
+    this.lastReconciledConfigs = null;
+    boolean applied = run();
+    return this.targets.reconcileOnce(this) && applied;
+  }
+
+  /**
+   * A timed run of this target, returning whether everything was applied or nothing had to be.
+   */
+  private boolean run() {
+    long start = System.nanoTime();
+    boolean applied = reconcile();
+    this.reconcileDuration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    if (!applied) {
+      this.failedReconciles.increment();
+    }
+    return applied;
+  }
+
+  /**
+   * A run, returning whether everything was applied or nothing had to be.
+   */
+  private boolean reconcile() {
 
     log.debug("Waking up to check the jetstream configuration");
 
@@ -41,68 +329,459 @@ public class JetstreamUpdatesScheduler {
     log.debug("Streams to be configured: {}", jetstreamConfigs);
 
     if (jetstreamConfigs != null) {
-
-      manageStreams(jetstreamConfigs.getStreamConfigs());
-      manageKeyValues(jetstreamConfigs.getKeyValueConfigs());
+      updatePriorities(jetstreamConfigs);
+
+      if (!this.leaderElection.isLeader()) {
+        keepWarm();
+        return true;
+      }
+
+      long shardVersion = this.shards.getVersion();
+      if (this.warmStartSnapshot != null) {
+        ReconcileSnapshot snapshot = this.warmStartSnapshot;
+        this.warmStartSnapshot = null;
+        if (warmStart(jetstreamConfigs, snapshot, shardVersion)) {
+          return true;
+        }
+      }
+
+      if (canSkip(jetstreamConfigs, shardVersion)) {
+        log.debug("Config and server unchanged since last reconcile, nothing to do");
+        this.skippedReconciles.increment();
+        return true;
+      }
+
+      this.lastReconciledConfigs = null;
+      boolean streamsApplied = manageStreams(byPriority(owned(jetstreamConfigs.getStreamConfigs(),
+          StreamConfig::getStreamName, this.shards::ownsStream), StreamConfig::getPriority));
+      boolean keyValuesApplied = manageKeyValues(byPriority(owned(jetstreamConfigs.getKeyValueConfigs(),
+          KeyValueConfig::getName, this.shards::ownsKeyValue), KeyValueConfig::getPriority));
+      this.executedReconciles.increment();
+
+      if (streamsApplied && keyValuesApplied) {
+        rememberReconciled(jetstreamConfigs, System.nanoTime() + this.fullResyncIntervalNanos, shardVersion);
+      }
+      return streamsApplied && keyValuesApplied;
 
     } else {
       log.debug("No stream configured");
+      return true;
     }
   }
 
-  private void manageKeyValues(List<KeyValueConfig> keyValueConfigs) {
+  /**
+   * Run of a follower: nothing is applied, but the server state is kept current so that the replica can take over
+   * without a cold full listing. What the leader changed meanwhile is not known, the next run as leader is a full one.
+   */
+  private void keepWarm() {
+    log.debug("Not the leader, nothing to reconcile");
+    this.lastReconciledConfigs = null;
+    if (this.serverState.isEnabled()) {
+      try {
+        this.serverState.getStreams();
+      } catch (IOException | JetStreamApiException e) {
+        log.warn("Unable to refresh the server state", e);
+      }
+    }
+  }
+
+  /**
+   * First run after a restart with a snapshot of the last applied state: only the entities whose desired spec differs
+   * from the snapshot are looked up and applied, the full resync is postponed to a jittered time so that controllers
+   * restarted together do not list the whole server at once.
+   */
+  private boolean warmStart(JetstreamConfigs jetstreamConfigs, ReconcileSnapshot snapshot, long shardVersion) {
+    List<StreamConfig> changedStreams = jetstreamConfigs.getStreamConfigs().stream()
+        .filter(streamConfig -> this.shards.ownsStream(streamConfig.getStreamName()))
+        .filter(streamConfig -> !Long.valueOf(EntityFingerprint.of(streamConfig))
+            .equals(snapshot.getStreams().get(streamConfig.getStreamName())))
+        .collect(Collectors.toList());
+    List<KeyValueConfig> keyValueConfigs = jetstreamConfigs.getKeyValueConfigs() == null ? new ArrayList<>()
+        : jetstreamConfigs.getKeyValueConfigs();
+    List<KeyValueConfig> changedKeyValues = keyValueConfigs.stream()
+        .filter(keyValueConfig -> this.shards.ownsKeyValue(keyValueConfig.getName()))
+        .filter(keyValueConfig -> !Long.valueOf(EntityFingerprint.of(keyValueConfig))
+            .equals(snapshot.getKeyValues().get(keyValueConfig.getName())))
+        .collect(Collectors.toList());
+
+    Set<String> removedStreams = new HashSet<>(snapshot.getStreams().keySet());
+    jetstreamConfigs.getStreamConfigs()
+        .forEach(streamConfig -> removedStreams.remove(streamConfig.getStreamName()));
+    Set<String> removedKeyValues = new HashSet<>(snapshot.getKeyValues().keySet());
+    keyValueConfigs.forEach(keyValueConfig -> removedKeyValues.remove(keyValueConfig.getName()));
+    removedStreams.removeIf(name -> !this.shards.ownsStream(name));
+    removedKeyValues.removeIf(name -> !this.shards.ownsKeyValue(name));
+
+    log.info("Warm start: {} streams and {} keyValues changed, {} streams and {} keyValues removed since last run",
+        changedStreams.size(), changedKeyValues.size(), removedStreams.size(), removedKeyValues.size());
+
     try {
-      List<KeyValueConfiguration> currentConfigs = this.nc.getCurrentKeyValuesConfig();
+      List<String> failures = applyTargeted(changedStreams, changedKeyValues, removedStreams, removedKeyValues);
+      this.executedReconciles.increment();
+      if (!failures.isEmpty()) {
+        log.warn("Warm start failed for {}, falling back to a full reconcile", failures);
+        return false;
+      }
+    } catch (IOException | JetStreamApiException e) {
+      log.error("Error when using jetstream api during warm start, falling back to a full reconcile", e);
+      return false;
+    }
 
-      log.debug("Current KeyValues: " + currentConfigs);
+    long jitter = this.warmStartResyncJitterNanos > 0
+        ? ThreadLocalRandom.current().nextLong(this.warmStartResyncJitterNanos) : 0;
+    rememberReconciled(jetstreamConfigs, System.nanoTime() + this.warmStartResyncDelayNanos + jitter, shardVersion);
+    return true;
+  }
 
-      List<KeyValueConfiguration> keyValuesToCreate = KeyValueConfigComparator.getKVToCreate(currentConfigs, keyValueConfigs);
+  /**
+   * Reconciles only the given entities against the current desired state, run by the queue: the ones still desired
+   * are created or updated, the others deleted, and the queue keys of the failed ones are returned. When everything
+   * was in sync before, it still is afterwards and the skip of unchanged runs is kept, otherwise next run reconciles
+   * everything.
+   */
+  synchronized List<String> reconcileEntities(Set<String> triggeredStreams, Set<String> triggeredKeyValues) {
+    JetstreamConfigs jetstreamConfigs = this.streamConf.resolveConfig();
+    if (jetstreamConfigs == null) {
+      log.debug("No stream configured");
+      return List.of();
+    }
+    if (!this.leaderElection.isLeader()) {
+      // the leader reconciles these entities, and a new leader starts with a full run
+      log.debug("Not the leader, {} streams and {} keyValues left to the leader", triggeredStreams.size(),
+          triggeredKeyValues.size());
+      return List.of();
+    }
+    updatePriorities(jetstreamConfigs);
+    long shardVersion = this.shards.getVersion();
+    // the other entities are reconciled by the replicas owning them
+    Set<String> streamNames = new HashSet<>(owned(new ArrayList<>(triggeredStreams), name -> name,
+        this.shards::ownsStream));
+    Set<String> keyValueNames = new HashSet<>(owned(new ArrayList<>(triggeredKeyValues), name -> name,
+        this.shards::ownsKeyValue));
+
+    List<StreamConfig> desiredStreams = byPriority(jetstreamConfigs.getStreamConfigs().stream()
+        .filter(streamConfig -> streamNames.contains(streamConfig.getStreamName()))
+        .collect(Collectors.toList()), StreamConfig::getPriority);
+    List<KeyValueConfig> desiredKeyValues = jetstreamConfigs.getKeyValueConfigs() == null ? new ArrayList<>()
+        : byPriority(jetstreamConfigs.getKeyValueConfigs().stream()
+            .filter(keyValueConfig -> keyValueNames.contains(keyValueConfig.getName()))
+            .collect(Collectors.toList()), KeyValueConfig::getPriority);
+    Set<String> removedStreams = new HashSet<>(streamNames);
+    desiredStreams.forEach(streamConfig -> removedStreams.remove(streamConfig.getStreamName()));
+    Set<String> removedKeyValues = new HashSet<>(keyValueNames);
+    desiredKeyValues.forEach(keyValueConfig -> removedKeyValues.remove(keyValueConfig.getName()));
+    removedKeyValues.removeAll(reservedKeyValues());
+
+    log.info("Reconciling {} streams and {} keyValues", streamNames.size(), keyValueNames.size());
+
+    boolean inSync = this.lastReconciledConfigs != null;
+    this.lastReconciledConfigs = null;
+    this.stagedStreams.clear();
+    try {
+      List<String> failures = applyTargeted(desiredStreams, desiredKeyValues, removedStreams, removedKeyValues);
+      this.executedReconciles.increment();
+      if (!failures.isEmpty()) {
+        log.warn("Reconcile failed for {}, retried after a backoff", failures);
+      } else if (inSync) {
+        rememberReconciled(jetstreamConfigs, this.nextFullResyncNanos, shardVersion);
+      }
+      // the staged updates are left to the next run, which is a full one as the run is no longer in sync
+      failures.removeAll(keys(ReconcileQueue.Kind.STREAM, this.stagedStreams));
+      return failures;
+    } catch (IOException | JetStreamApiException e) {
+      log.error("Error when using jetstream api", e);
+      List<String> failures = keys(ReconcileQueue.Kind.STREAM, streamNames);
+      failures.addAll(keys(ReconcileQueue.Kind.KEY_VALUE, keyValueNames));
+      return failures;
+    }
+  }
 
-      this.nc.createKeyValues(keyValuesToCreate);
+  /**
+   * Priorities of the desired entities, read by the queue without waiting for a running reconcile.
+   */
+  private int priorityOf(ReconcileQueue.Kind kind, String name) {
+    Map<String, Priority> priorities = kind == ReconcileQueue.Kind.STREAM ? this.streamPriorities
+        : this.keyValuePriorities;
+    return priorities.getOrDefault(name, Priority.NORMAL).ordinal();
+  }
 
-      List<KeyValueConfiguration> keyValuesToUpdate = KeyValueConfigComparator.compareKVWithConfig(currentConfigs,
-          keyValueConfigs);
+  private void updatePriorities(JetstreamConfigs jetstreamConfigs) {
+    if (jetstreamConfigs == this.prioritizedConfigs) {
+      return;
+    }
+    Map<String, Priority> streams = new HashMap<>();
+    jetstreamConfigs.getStreamConfigs().stream()
+        .filter(streamConfig -> streamConfig.getPriority() != null)
+        .forEach(streamConfig -> streams.put(streamConfig.getStreamName(), Priority.of(streamConfig.getPriority())));
+    Map<String, Priority> keyValues = new HashMap<>();
+    if (jetstreamConfigs.getKeyValueConfigs() != null) {
+      jetstreamConfigs.getKeyValueConfigs().stream()
+          .filter(keyValueConfig -> keyValueConfig.getPriority() != null)
+          .forEach(keyValueConfig -> keyValues.put(keyValueConfig.getName(),
+              Priority.of(keyValueConfig.getPriority())));
+    }
+    this.streamPriorities = streams;
+    this.keyValuePriorities = keyValues;
+    this.prioritizedConfigs = jetstreamConfigs;
+  }
 
-      this.nc.updateKeyValues(keyValuesToUpdate);
+  /**
+   * Stable sort of the desired entities by priority, so that the most critical ones are applied first.
+   */
+  private static <T> List<T> byPriority(List<T> configs, Function<T, String> priority) {
+    if (configs == null || configs.stream().allMatch(config -> priority.apply(config) == null)) {
+      return configs;
+    }
+    return configs.stream()
+        .sorted(Comparator.comparing((T config) -> Priority.of(priority.apply(config))))
+        .collect(Collectors.toList());
+  }
 
-      List<KeyValueConfiguration> keyValuesToDelete = KeyValueConfigComparator.getKVToDelete(currentConfigs,
-          keyValueConfigs);
+  /**
+   * Looks up only the given entities on the server and applies them, without touching any other one. Returns the queue
+   * keys of the failed ones.
+   */
+  private List<String> applyTargeted(List<StreamConfig> streamConfigs, List<KeyValueConfig> keyValueConfigs,
+      Set<String> removedStreams, Set<String> removedKeyValues) throws IOException, JetStreamApiException {
+    List<String> streamFailures = new ArrayList<>();
+    if (!streamConfigs.isEmpty()) {
+      List<StreamInfo> currentStreams = this.serverState.getStreams(streamConfigs.stream()
+          .map(StreamConfig::getStreamName).collect(Collectors.toList()));
+      streamFailures.addAll(applyStreams(currentStreams, streamConfigs, false));
+    }
+    streamFailures.addAll(this.nc.deleteStreams(removedStreams.stream()
+        .map(name -> StreamConfiguration.builder().name(name).build()).collect(Collectors.toList())));
+
+    List<String> keyValueFailures = new ArrayList<>();
+    if (!keyValueConfigs.isEmpty()) {
+      List<KeyValueConfiguration> currentKeyValues = this.serverState.getKeyValues(keyValueConfigs.stream()
+          .map(KeyValueConfig::getName).collect(Collectors.toList()));
+      keyValueFailures.addAll(applyKeyValues(currentKeyValues, keyValueConfigs, false));
+    }
+    keyValueFailures.addAll(this.nc.deleteKeyValues(removedKeyValues.stream()
+        .map(name -> KeyValueConfiguration.builder().name(name).build()).collect(Collectors.toList())));
 
-      this.nc.deleteKeyValues(keyValuesToDelete);
+    List<String> failures = keys(ReconcileQueue.Kind.STREAM, streamFailures);
+    failures.addAll(keys(ReconcileQueue.Kind.KEY_VALUE, keyValueFailures));
+    return failures;
+  }
 
-      log.debug("KeyValues created {}, keyValues updated {}, keyValues deleted {}", keyValuesToCreate.size(),
-          keyValuesToUpdate.size(), keyValuesToDelete.size());
+  private static List<String> keys(ReconcileQueue.Kind kind, Collection<String> names) {
+    return names.stream().map(name -> ReconcileQueue.key(kind, name)).collect(Collectors.toList());
+  }
 
+  /**
+   * A run can be skipped when the resolver returned the very same config instance as the last fully applied one, the
+   * server change indicator did not move and the next full resync is not due. The indicator misses the edits of
+   * existing streams, which are only seen by the full resync unless the advisories repair them.
+   */
+  private boolean canSkip(JetstreamConfigs jetstreamConfigs, long shardVersion) {
+    if (!this.skipUnchanged || jetstreamConfigs != this.lastReconciledConfigs
+        || shardVersion != this.lastShardVersion || System.nanoTime() - this.nextFullResyncNanos >= 0) {
+      return false;
+    }
+    try {
+      return this.nc.getServerChangeIndicator() == this.lastServerChangeIndicator;
     } catch (IOException | JetStreamApiException e) {
-      log.error("Error when using jetstream api", e);
+      log.warn("Unable to read the server change indicator, reconciling", e);
+      return false;
     }
   }
 
-  private void manageStreams(List<StreamConfig> streamConfigs) {
+  private void rememberReconciled(JetstreamConfigs jetstreamConfigs, long nextFullResync, long shardVersion) {
+    this.snapshotStore.save(jetstreamConfigs);
+    if (!this.skipUnchanged) {
+      return;
+    }
     try {
-      List<StreamInfo> currentConfigs = this.nc.getCurrentStreamConfig();
+      this.lastServerChangeIndicator = this.nc.getServerChangeIndicator();
+      this.lastReconciledConfigs = jetstreamConfigs;
+      this.lastShardVersion = shardVersion;
+      this.nextFullResyncNanos = nextFullResync;
+    } catch (IOException | JetStreamApiException e) {
+      log.warn("Unable to read the server change indicator, next run will reconcile again", e);
+    }
+  }
 
-      log.debug("Current streams: " + currentConfigs);
+  /**
+   * Queues the entities which failed during a full run, to retry them after their backoff rather than at the next run.
+   * The staged stream updates still in progress are left to the next run.
+   */
+  private boolean retried(ReconcileQueue.Kind kind, List<String> failures) {
+    if (!failures.isEmpty()) {
+      this.queue.retry(kind, kind == ReconcileQueue.Kind.STREAM ? failures.stream()
+          .filter(name -> !this.stagedStreams.contains(name))
+          .collect(Collectors.toList()) : failures);
+    }
+    return failures.isEmpty();
+  }
 
-      List<StreamConfiguration> streamsToCreate = StreamConfigComparator.getStreamsToCreate(currentConfigs, streamConfigs);
+  /**
+   * Buckets used by the controller itself: the one of the desired state, the lease of the leader election and the
+   * members of the shards.
+   */
+  private Set<String> reservedKeyValues() {
+    Set<String> reserved = new HashSet<>(this.streamConf.getReservedKeyValues());
+    reserved.addAll(this.leaderElection.getReservedKeyValues());
+    reserved.addAll(this.shards.getReservedKeyValues());
+    return reserved;
+  }
 
-      this.nc.createStreams(streamsToCreate);
+  /**
+   * Entities of the slice of this replica, all of them when sharding is disabled.
+   */
+  private <T> List<T> owned(List<T> entities, Function<T, String> name, Predicate<String> owns) {
+    if (entities == null || !this.shards.isEnabled()) {
+      return entities;
+    }
+    return entities.stream().filter(entity -> owns.test(name.apply(entity))).collect(Collectors.toList());
+  }
+
+  /**
+   * Whether the names inventory is used for the given desired entities: not when the advisories keep the server state
+   * in memory anyway, nor for more than {@link #INVENTORY_BY_NAME_MAX} of them.
+   */
+  private boolean inventoryByName(List<?> configs) {
+    return this.inventoryByName && !this.serverState.isEnabled()
+        && (configs == null || configs.size() <= INVENTORY_BY_NAME_MAX);
+  }
+
+  private boolean manageKeyValues(List<KeyValueConfig> keyValueConfigs) {
+    try {
+      if (inventoryByName(keyValueConfigs)) {
+        return retried(ReconcileQueue.Kind.KEY_VALUE, applyKeyValuesByName(keyValueConfigs));
+      }
+
+      List<KeyValueConfiguration> currentConfigs = new ArrayList<>(this.serverState.isEnabled()
+          ? this.serverState.getKeyValues() : this.nc.getCurrentKeyValuesConfig());
+      // buckets used by the controller itself are not part of the desired state
+      Set<String> reservedKeyValues = reservedKeyValues();
+      currentConfigs.removeIf(keyValue -> reservedKeyValues.contains(keyValue.getBucketName())
+          || !this.shards.ownsKeyValue(keyValue.getBucketName()));
+
+      log.debug("Current KeyValues: " + currentConfigs);
+
+      return retried(ReconcileQueue.Kind.KEY_VALUE, applyKeyValues(currentConfigs, keyValueConfigs, true));
+
+    } catch (IOException | JetStreamApiException e) {
+      log.error("Error when using jetstream api", e);
+      return false;
+    }
+  }
+
+  /**
+   * Lists the bucket names only, then looks up and applies the existing desired buckets page by page, so that only a
+   * page of configurations is held at once. Buckets which are not desired are deleted by name.
+   */
+  private List<String> applyKeyValuesByName(List<KeyValueConfig> keyValueConfigs)
+      throws IOException, JetStreamApiException {
+    Map<String, KeyValueConfig> desired = new LinkedHashMap<>();
+    if (keyValueConfigs != null) {
+      keyValueConfigs.forEach(keyValueConfig -> desired.putIfAbsent(keyValueConfig.getName(), keyValueConfig));
+    }
+    List<String> serverNames = new ArrayList<>(this.nc.getKeyValueNames());
+    serverNames.removeAll(reservedKeyValues());
+    serverNames.removeIf(name -> !this.shards.ownsKeyValue(name));
+    InventoryDiff diff = ReconcilePlanner.diffNames(serverNames, desired.keySet(), this.keyValueFingerprints);
+
+    log.debug("KeyValues inventory: {}", diff);
+
+    List<String> failures = new ArrayList<>();
+    List<String> found = new ArrayList<>(diff.getFound().keySet());
+    for (int from = 0; from < found.size(); from += INVENTORY_PAGE_SIZE) {
+      List<String> page = found.subList(from, Math.min(found.size(), from + INVENTORY_PAGE_SIZE));
+      List<KeyValueConfig> pageConfigs = page.stream()
+          .map(name -> desired.get(diff.getFound().get(name)))
+          .collect(Collectors.toList());
+      failures.addAll(applyKeyValues(this.nc.getKeyValuesConfig(page), pageConfigs, false));
+    }
+    failures.addAll(applyKeyValues(new ArrayList<>(), diff.getMissing().stream()
+        .map(desired::get).collect(Collectors.toList()), false));
+    failures.addAll(this.nc.deleteKeyValues(diff.getUnknown().stream()
+        .map(name -> KeyValueConfiguration.builder().name(name).build()).collect(Collectors.toList())));
+    return failures;
+  }
+
+  private List<String> applyKeyValues(List<KeyValueConfiguration> currentConfigs, List<KeyValueConfig> keyValueConfigs,
+      boolean deleteUnknown) {
+    ReconcilePlan<KeyValueConfiguration> plan = ReconcilePlanner.planKeyValues(currentConfigs, keyValueConfigs,
+        deleteUnknown, this.keyValueFingerprints);
 
-      List<StreamConfiguration> streamsToUpdate = StreamConfigComparator.compareStreamsWithConfig(currentConfigs,
-          streamConfigs);
+    plan.getDifferences().forEach((name, fields) -> log.info("KeyValue {} differs on {}", name, fields));
 
-      this.nc.updateStreams(streamsToUpdate);
+    List<String> failures = new ArrayList<>(this.nc.createKeyValues(plan.getToCreate()));
+    failures.addAll(this.nc.updateKeyValues(plan.getToUpdate()));
+    failures.addAll(this.nc.deleteKeyValues(plan.getToDelete()));
 
-      List<StreamConfiguration> streamsToDelete = StreamConfigComparator.getStreamsToDelete(currentConfigs,
-          streamConfigs);
+    log.debug("KeyValues created {}, keyValues updated {}, keyValues deleted {}", plan.getToCreate().size(),
+        plan.getToUpdate().size(), plan.getToDelete().size());
 
-      this.nc.deleteStreams(streamsToDelete);
+    return failures;
+  }
+
+  private boolean manageStreams(List<StreamConfig> streamConfigs) {
+    this.stagedStreams.clear();
+    try {
+      if (inventoryByName(streamConfigs)) {
+        return retried(ReconcileQueue.Kind.STREAM, applyStreamsByName(streamConfigs));
+      }
 
-      log.debug("Streams created {}, streams updated {}, streams deleted {}", streamsToCreate.size(),
-          streamsToUpdate.size(), streamsToDelete.size());
+      List<StreamInfo> currentConfigs = owned(this.serverState.isEnabled() ? this.serverState.getStreams()
+          : this.nc.getCurrentStreamConfig(), streamInfo -> streamInfo.getConfiguration().getName(),
+          this.shards::ownsStream);
+
+      log.debug("Current streams: " + currentConfigs);
+
+      return retried(ReconcileQueue.Kind.STREAM, applyStreams(currentConfigs, streamConfigs, true));
 
     } catch (IOException | JetStreamApiException e) {
       log.error("Error when using jetstream api", e);
+      return false;
     }
   }
+
+  /**
+   * Lists the stream names only, then looks up and applies the existing desired streams page by page, so that only a
+   * page of stream infos is held at once. Streams which are not desired are deleted by name.
+   */
+  private List<String> applyStreamsByName(List<StreamConfig> streamConfigs) throws IOException, JetStreamApiException {
+    Map<String, StreamConfig> desired = new LinkedHashMap<>();
+    streamConfigs.forEach(streamConfig -> desired.putIfAbsent(streamConfig.getStreamName(), streamConfig));
+    InventoryDiff diff = ReconcilePlanner.diffNames(owned(this.nc.getStreamNames(), name -> name,
+        this.shards::ownsStream), desired.keySet(), this.streamFingerprints);
+
+    log.debug("Streams inventory: {}", diff);
+
+    List<String> failures = new ArrayList<>();
+    List<String> found = new ArrayList<>(diff.getFound().keySet());
+    for (int from = 0; from < found.size(); from += INVENTORY_PAGE_SIZE) {
+      List<String> page = found.subList(from, Math.min(found.size(), from + INVENTORY_PAGE_SIZE));
+      List<StreamConfig> pageConfigs = page.stream()
+          .map(name -> desired.get(diff.getFound().get(name)))
+          .collect(Collectors.toList());
+      failures.addAll(applyStreams(this.nc.getStreamsConfig(page), pageConfigs, false));
+    }
+    failures.addAll(applyStreams(new ArrayList<>(), diff.getMissing().stream()
+        .map(desired::get).collect(Collectors.toList()), false));
+    failures.addAll(this.nc.deleteStreams(diff.getUnknown().stream()
+        .map(name -> StreamConfiguration.builder().name(name).build()).collect(Collectors.toList())));
+    return failures;
+  }
+
+  private List<String> applyStreams(List<StreamInfo> currentConfigs, List<StreamConfig> streamConfigs,
+      boolean deleteUnknown) {
+    ReconcilePlan<StreamConfiguration> plan = ReconcilePlanner.planStreams(currentConfigs, streamConfigs,
+        deleteUnknown, this.streamFingerprints);
+
+    plan.getDifferences().forEach((name, fields) -> log.info("Stream {} differs on {}", name, fields));
+
+    List<String> failures = new ArrayList<>(this.nc.createStreams(plan.getToCreate()));
+    failures.addAll(this.updateStager.updateStreams(plan, currentConfigs, this.stagedStreams));
+    failures.addAll(this.nc.deleteStreams(plan.getToDelete()));
+
+    log.debug("Streams created {}, streams updated {}, streams deleted {}", plan.getToCreate().size(),
+        plan.getToUpdate().size(), plan.getToDelete().size());
+
+    return failures;
+  }
 }
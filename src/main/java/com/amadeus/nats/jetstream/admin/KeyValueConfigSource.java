@@ -0,0 +1,262 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.api.KeyValueEntry;
+import io.nats.client.api.KeyValueOperation;
+import io.nats.client.api.KeyValueWatcher;
+import io.nats.client.impl.NatsKeyValueWatchSubscription;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Desired state stored in a NATS key value bucket, one key per entity: {@code streams.<streamName>} holds a stream
+ * spec and {@code keyValues.<bucketName>} a key value spec, both in the YAML (or JSON) format of the config file.
+ * <p>
+ * The bucket is watched: once the initial values are loaded a full reconcile is run, then each put or delete only
+ * reconciles the entities of the changed keys.
+ */
+@ApplicationScoped
+@Typed(KeyValueConfigSource.class)
+@Slf4j
+public class KeyValueConfigSource implements JetstreamConfigSource, KeyValueWatcher {
+
+  static final String STREAM_PREFIX = "streams.";
+
+  static final String KEY_VALUE_PREFIX = "keyValues.";
+
+  private final NatsConnection nc;
+
+  private final JetstreamUpdatesScheduler scheduler;
+
+  private final String bucket;
+
+  private final boolean enabled;
+
+  private final ObjectReader streamReader;
+
+  private final ObjectReader keyValueReader;
+
+  private final Map<String, StreamConfig> streams = new TreeMap<>();
+
+  private final Map<String, KeyValueConfig> keyValues = new TreeMap<>();
+
+  private final Set<String> pendingStreams = new HashSet<>();
+
+  private final Set<String> pendingKeyValues = new HashSet<>();
+
+  private boolean loaded;
+
+  private JetstreamConfigs jetstreamConfigs;
+
+  private ExecutorService reconciler;
+
+  private NatsKeyValueWatchSubscription subscription;
+
+  @Inject
+  public KeyValueConfigSource(NatsConnection nc, JetstreamUpdatesScheduler scheduler,
+      @ConfigProperty(name = "config.source", defaultValue = JetstreamConfigSources.FILE) String source,
+      @ConfigProperty(name = "config.kv.bucket", defaultValue = "jetstream-configs") String bucket) {
+    this.nc = nc;
+    this.scheduler = scheduler;
+    this.bucket = bucket;
+    this.enabled = JetstreamConfigSources.KEY_VALUE.equals(source);
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    mapper.findAndRegisterModules();
+    this.streamReader = mapper.readerFor(StreamConfig.class);
+    this.keyValueReader = mapper.readerFor(KeyValueConfig.class);
+  }
+
+  void onStart(@Observes StartupEvent event) {
+    if (this.enabled) {
+      this.nc.onConnect(this::start);
+    }
+  }
+
+  void onStop(@Observes ShutdownEvent event) {
+    stop();
+  }
+
+  synchronized void start() {
+    if (this.reconciler != null) {
+      return;
+    }
+    this.reconciler = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "config-kv-reconciler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      this.subscription = this.nc.watchKeyValue(this.bucket, this);
+      log.info("Watching key value bucket {} for config changes", this.bucket);
+    } catch (IOException | JetStreamApiException e) {
+      log.error("Unable to watch the config bucket " + this.bucket, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  synchronized void stop() {
+    if (this.subscription != null) {
+      this.subscription.unsubscribe();
+      this.subscription = null;
+    }
+    if (this.reconciler != null) {
+      this.reconciler.shutdownNow();
+      this.reconciler = null;
+    }
+  }
+
+  /**
+   * Returns null until the initial values of the bucket are loaded, and while the bucket is empty: an empty bucket is
+   * much more likely a wrong bucket name than a wish to delete everything.
+   */
+  @Override
+  public synchronized JetstreamConfigs resolveConfig() {
+    if (!this.loaded) {
+      log.debug("Config bucket {} not loaded yet", this.bucket);
+      return null;
+    }
+    if (this.streams.isEmpty() && this.keyValues.isEmpty()) {
+      log.warn("Config bucket {} is empty, ignored", this.bucket);
+      return null;
+    }
+    if (this.jetstreamConfigs == null) {
+      JetstreamConfigs built = new JetstreamConfigs();
+      built.setStreamConfigs(new ArrayList<>(this.streams.values()));
+      built.setKeyValueConfigs(new ArrayList<>(this.keyValues.values()));
+      this.jetstreamConfigs = built;
+    }
+    return this.jetstreamConfigs;
+  }
+
+  @Override
+  public Set<String> getReservedKeyValues() {
+    return Set.of(this.bucket);
+  }
+
+  @Override
+  public void watch(KeyValueEntry entry) {
+    synchronized (this) {
+      if (!apply(entry) || !this.loaded) {
+        return;
+      }
+    }
+    submit(this::reconcilePending);
+  }
+
+  @Override
+  public void endOfData() {
+    synchronized (this) {
+      this.loaded = true;
+      // covered by the full reconcile
+      this.pendingStreams.clear();
+      this.pendingKeyValues.clear();
+      log.info("Config bucket {} loaded: {} streams, {} keyValues", this.bucket, this.streams.size(),
+          this.keyValues.size());
+    }
+    submit(this.scheduler::updateStreams);
+  }
+
+  /**
+   * Applies a key change to the desired state, returns false when it is ignored. A value which cannot be parsed keeps
+   * the previous spec of the entity, so that a typo never deletes it.
+   */
+  private boolean apply(KeyValueEntry entry) {
+    String key = entry.getKey();
+    boolean removed = entry.getOperation() != KeyValueOperation.PUT;
+    try {
+      if (key.startsWith(STREAM_PREFIX)) {
+        String name = key.substring(STREAM_PREFIX.length());
+        if (removed) {
+          return this.streams.remove(name) != null && changed(this.pendingStreams, name);
+        }
+        StreamConfig streamConfig = this.streamReader.readValue(entry.getValue());
+        if (streamConfig.getStreamName() == null) {
+          streamConfig.setStreamName(name);
+        } else if (!name.equals(streamConfig.getStreamName())) {
+          log.error("Key {} of config bucket {} defines stream {}, ignored", key, this.bucket,
+              streamConfig.getStreamName());
+          return false;
+        }
+        this.streams.put(name, streamConfig);
+        return changed(this.pendingStreams, name);
+      }
+      if (key.startsWith(KEY_VALUE_PREFIX)) {
+        String name = key.substring(KEY_VALUE_PREFIX.length());
+        if (removed) {
+          return this.keyValues.remove(name) != null && changed(this.pendingKeyValues, name);
+        }
+        KeyValueConfig keyValueConfig = this.keyValueReader.readValue(entry.getValue());
+        if (keyValueConfig.getName() == null) {
+          keyValueConfig.setName(name);
+        } else if (!name.equals(keyValueConfig.getName())) {
+          log.error("Key {} of config bucket {} defines keyValue {}, ignored", key, this.bucket,
+              keyValueConfig.getName());
+          return false;
+        }
+        this.keyValues.put(name, keyValueConfig);
+        return changed(this.pendingKeyValues, name);
+      }
+    } catch (IOException e) {
+      log.error("Unable to parse key " + key + " of config bucket " + this.bucket + ", previous spec kept", e);
+      return false;
+    }
+    log.warn("Key {} of config bucket {} ignored, expecting {} or {} prefix", key, this.bucket, STREAM_PREFIX,
+        KEY_VALUE_PREFIX);
+    return false;
+  }
+
+  private boolean changed(Set<String> pending, String name) {
+    pending.add(name);
+    this.jetstreamConfigs = null;
+    return true;
+  }
+
+  private void reconcilePending() {
+    Set<String> streamNames;
+    Set<String> keyValueNames;
+    synchronized (this) {
+      streamNames = new HashSet<>(this.pendingStreams);
+      keyValueNames = new HashSet<>(this.pendingKeyValues);
+      this.pendingStreams.clear();
+      this.pendingKeyValues.clear();
+    }
+    // changes received while a reconcile was running are coalesced in a single run
+    if (!streamNames.isEmpty() || !keyValueNames.isEmpty()) {
+      this.scheduler.enqueue(streamNames, keyValueNames);
+    }
+  }
+
+  private synchronized void submit(Runnable task) {
+    if (this.reconciler != null) {
+      this.reconciler.execute(() -> {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          log.error("Reconcile triggered by a config bucket change failed", e);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.KeyValue;
+import io.nats.client.api.KeyValueEntry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Election of the replica which reconciles, when several controllers run side by side. The leader holds a lease: a
+ * key of a NATS key value bucket whose TTL is the lease duration, renewed by updates checked against the revision it
+ * last wrote, so that a replica which lost the key can never overwrite the one of another leader.
+ * <p>
+ * Followers try to take the key over at each renew interval, and win it once the TTL removed it: failover takes the
+ * lease duration at most, and is immediate when the leader releases the lease on shutdown. A leader which cannot renew
+ * steps down on its own once its lease is over, before any follower can win it.
+ */
+@ApplicationScoped
+@Slf4j
+public class LeaderElection {
+
+  static final String LEASE_KEY = "leader";
+
+  private final NatsConnection nc;
+
+  private final JetstreamUpdatesScheduler scheduler;
+
+  private final boolean enabled;
+
+  private final String bucket;
+
+  private final Duration lease;
+
+  private final Duration renewInterval;
+
+  private final int replicas;
+
+  private final byte[] identity;
+
+  private volatile boolean leader;
+
+  private volatile long lastRenewNanos;
+
+  private long revision;
+
+  private KeyValue keyValue;
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * Disabled election, this replica always leads.
+   */
+  public LeaderElection() {
+    this(null, null, null, false, "", Duration.ZERO, Duration.ZERO, 1, Optional.empty());
+  }
+
+  @Inject
+  public LeaderElection(NatsConnection nc, JetstreamUpdatesScheduler scheduler, MeterRegistry registry,
+      @ConfigProperty(name = "leader-election.enabled", defaultValue = "false") boolean enabled,
+      @ConfigProperty(name = "leader-election.bucket", defaultValue = "jetstream-controller-leader") String bucket,
+      @ConfigProperty(name = "leader-election.lease", defaultValue = "10s") Duration lease,
+      @ConfigProperty(name = "leader-election.renew-interval", defaultValue = "3s") Duration renewInterval,
+      @ConfigProperty(name = "leader-election.replicas", defaultValue = "1") int replicas,
+      @ConfigProperty(name = "leader-election.identity") Optional<String> identity) {
+    this.nc = nc;
+    this.scheduler = scheduler;
+    this.enabled = enabled;
+    this.bucket = bucket;
+    this.lease = lease;
+    this.renewInterval = renewInterval;
+    this.replicas = replicas;
+    this.identity = resolveIdentity(identity).getBytes(StandardCharsets.UTF_8);
+    if (registry != null) {
+      Gauge.builder("jetstream.leader", this, election -> election.isLeader() ? 1 : 0)
+          .description("1 when this replica is the one which reconciles, 0 otherwise")
+          .register(registry);
+    }
+  }
+
+  /**
+   * The configured name of the replica, else the pod name set by the chart, else a random one.
+   */
+  static String resolveIdentity(Optional<String> configured) {
+    if (configured.isPresent()) {
+      return configured.get();
+    }
+    String podName = System.getenv("POD_NAME");
+    return podName == null || podName.isBlank() ? UUID.randomUUID().toString() : podName;
+  }
+
+  void onStart(@Observes StartupEvent event) {
+    if (this.enabled) {
+      start();
+    }
+  }
+
+  void onStop(@Observes ShutdownEvent event) {
+    stop();
+  }
+
+  synchronized void start() {
+    if (this.executor != null) {
+      return;
+    }
+    // a second thread runs the reconcile on takeover, without delaying the renewals
+    this.executor = Executors.newScheduledThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "leader-election");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.scheduleWithFixedDelay(this::renew, 0, this.renewInterval.toMillis(), TimeUnit.MILLISECONDS);
+    log.info("Leader election started in bucket {} as {}", this.bucket, identity());
+  }
+
+  /**
+   * Releases the lease when held, so that a follower takes over at its next renew instead of waiting for the TTL.
+   */
+  synchronized void stop() {
+    if (this.executor == null) {
+      return;
+    }
+    this.executor.shutdownNow();
+    this.executor = null;
+    if (this.leader) {
+      this.leader = false;
+      try {
+        this.keyValue.delete(LEASE_KEY);
+        log.info("Leadership released");
+      } catch (IOException | JetStreamApiException e) {
+        log.warn("Unable to release the lease, followers take over once it expires", e);
+      }
+    }
+  }
+
+  /**
+   * Whether this replica may reconcile: always when the election is disabled, otherwise while its lease is valid.
+   */
+  public boolean isLeader() {
+    return !this.enabled || this.leader && System.nanoTime() - this.lastRenewNanos < this.lease.toNanos();
+  }
+
+  /**
+   * The lease bucket, never deleted by the controller.
+   */
+  public Set<String> getReservedKeyValues() {
+    return this.enabled ? Set.of(this.bucket) : Set.of();
+  }
+
+  synchronized void renew() {
+    long started = System.nanoTime();
+    try {
+      if (this.keyValue == null) {
+        this.keyValue = this.nc.leaseBucket(this.bucket, this.lease, this.replicas);
+      }
+      if (this.leader) {
+        this.nc.acquireWrite();
+        this.revision = this.keyValue.update(LEASE_KEY, this.identity, this.revision);
+        this.lastRenewNanos = started;
+        return;
+      }
+      this.nc.acquireRead();
+      KeyValueEntry entry = this.keyValue.get(LEASE_KEY);
+      if (entry == null) {
+        this.nc.acquireWrite();
+        elected(this.keyValue.create(LEASE_KEY, this.identity), started);
+      } else if (identity().equals(entry.getValueAsString())) {
+        // restarted before the lease of its previous run expired
+        this.nc.acquireWrite();
+        elected(this.keyValue.update(LEASE_KEY, this.identity, entry.getRevision()), started);
+      } else {
+        log.debug("Lease held by {}", entry.getValueAsString());
+      }
+    } catch (JetStreamApiException e) {
+      // the revision check failed: another replica wrote the lease
+      if (this.leader) {
+        this.leader = false;
+        log.warn("Leadership lost to another replica", e);
+      } else {
+        log.debug("Lease taken by another replica", e);
+      }
+    } catch (IOException e) {
+      if (this.leader && !isLeader()) {
+        this.leader = false;
+        log.warn("Leadership lost, the lease could not be renewed in time", e);
+      } else {
+        log.warn("Unable to renew the lease", e);
+      }
+    } catch (RuntimeException e) {
+      log.error("Leader election failed", e);
+    }
+  }
+
+  private void elected(long revision, long started) {
+    this.revision = revision;
+    this.lastRenewNanos = started;
+    this.leader = true;
+    log.info("Elected leader as {}", identity());
+    // followers do not reconcile: take over at once rather than at the next scheduled run
+    if (this.executor != null) {
+      this.executor.execute(this.scheduler::updateStreams);
+    }
+  }
+
+  private String identity() {
+    return new String(this.identity, StandardCharsets.UTF_8);
+  }
+}
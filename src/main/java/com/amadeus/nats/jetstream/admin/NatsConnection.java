@@ -1,123 +1,601 @@
 package com.amadeus.nats.jetstream.admin;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.nats.client.api.KeyValueConfiguration;
 import io.nats.client.api.KeyValueStatus;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import io.nats.client.Connection;
+import io.nats.client.ConnectionListener;
+import io.nats.client.Dispatcher;
 import io.nats.client.JetStreamApiException;
+import io.nats.client.JetStreamManagement;
+import io.nats.client.JetStreamOptions;
+import io.nats.client.KeyValue;
+import io.nats.client.KeyValueManagement;
+import io.nats.client.KeyValueOptions;
+import io.nats.client.MessageHandler;
+import io.nats.client.api.KeyValueWatcher;
+import io.nats.client.impl.NatsKeyValueWatchSubscription;
 import io.nats.client.Nats;
-import io.nats.client.Options;
 import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StorageType;
 import io.nats.client.api.StreamInfo;
 import lombok.extern.slf4j.Slf4j;
 
 @ApplicationScoped
 @Slf4j
-public class NatsConnection {
+public class NatsConnection implements ConnectionListener {
 
-  private Connection nc;
+  private static final int NOT_FOUND_API_ERROR = 10059;
 
+  /**
+   * Entities returned by a page of the server listings, with and without their configuration and state.
+   */
+  private static final int LIST_PAGE_SIZE = 256;
+
+  private static final int NAMES_PAGE_SIZE = 1024;
+
+  /**
+   * Time during which the advisories of a stream written by the controller are its own.
+   */
+  private static final long RECENT_WRITE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private volatile Connection nc;
+
+  private final ExecutorService applyExecutor;
+
+  private final ApiRateLimiter reads;
+
+  private final ApiRateLimiter writes;
+
+  private final JetStreamOptions jetStreamOptions;
+
+  private final List<Runnable> connectListeners = new ArrayList<>();
+
+  private final Map<String, Long> recentWrites = new ConcurrentHashMap<>();
+
+  private volatile long nextRecentWritesPruneNanos = System.nanoTime();
+
+  private final List<Runnable> reconnectListeners = new CopyOnWriteArrayList<>();
+
+  private volatile JetStreamManagement jetStreamManagement;
+
+  private volatile KeyValueManagement keyValueManagement;
+
+  /**
+   * Connects in the background, so that the application starts even when NATS is unreachable: the calls fail until
+   * the connection is established, see {@link #onConnect(Runnable)}.
+   */
   @Inject
-  public NatsConnection(@ConfigProperty(name = "nats.url") String natsUrl) throws IOException, InterruptedException {
-    Options options = new Options.Builder()
-        .servers(natsUrl.split(","))
-        .build();
-    this.nc = Nats.connect(options);
+  public NatsConnection(@ConfigProperty(name = "nats.url") String natsUrl, NatsConnectionOptions options,
+      @ConfigProperty(name = "apply.concurrency", defaultValue = "8") int applyConcurrency,
+      @ConfigProperty(name = "api.rate-limit.reads", defaultValue = "100") double readsPerSecond,
+      @ConfigProperty(name = "api.rate-limit.writes", defaultValue = "50") double writesPerSecond,
+      @ConfigProperty(name = "api.rate-limit.burst", defaultValue = "10") int burst, MeterRegistry registry)
+      throws IOException, InterruptedException {
+    this(null, applyConcurrency, new ApiRateLimiter(readsPerSecond, burst).register(registry, "read"),
+        new ApiRateLimiter(writesPerSecond, burst).register(registry, "write"), options.jetStreamOptions(null));
+    // retried every nats.reconnect-wait until a server answers
+    Nats.connectAsynchronously(options.options(natsUrl, options.getCredentials(), this), true);
+    log.info("Connecting to NATS at {}", natsUrl);
   }
 
-  public void createStreams(List<StreamConfiguration> streamsToCreate) {
+  /**
+   * Connects to the given servers, separated by commas.
+   *
+   * @param credentials path of the credentials file (JWT and NKey seed) of the account, none when empty
+   * @param domain JetStream domain of the streams and buckets, the one of the account when null
+   */
+  NatsConnection(String natsUrl, Optional<String> credentials, String domain, NatsConnectionOptions options,
+      int applyConcurrency, ApiRateLimiter reads, ApiRateLimiter writes) throws IOException, InterruptedException {
+    this(null, applyConcurrency, reads, writes, options.jetStreamOptions(domain));
+    this.nc = Nats.connect(options.options(natsUrl, credentials, this));
+  }
 
-    for (StreamConfiguration streamConf : streamsToCreate) {
-      try {
-        log.info("Performing stream creation for {}", streamConf.getName());
-        this.nc.jetStreamManagement().addStream(streamConf);
-      } catch (IOException | JetStreamApiException e) {
-        log.error("Unable to create stream with info: " + streamConf, e);
+  /**
+   * Wraps an existing connection, e.g. an in-memory stand-in for tests and benchmarks, without rate limit.
+   */
+  NatsConnection(Connection connection, int applyConcurrency) {
+    this(connection, applyConcurrency, ApiRateLimiter.unlimited(), ApiRateLimiter.unlimited());
+  }
+
+  NatsConnection(Connection connection, int applyConcurrency, ApiRateLimiter reads, ApiRateLimiter writes) {
+    this(connection, applyConcurrency, reads, writes, null);
+  }
+
+  /**
+   * @param jetStreamOptions options of the JetStream and key value API calls, the defaults of the client when null
+   */
+  private NatsConnection(Connection connection, int applyConcurrency, ApiRateLimiter reads, ApiRateLimiter writes,
+      JetStreamOptions jetStreamOptions) {
+    this.nc = connection;
+    this.reads = reads;
+    this.writes = writes;
+    this.jetStreamOptions = jetStreamOptions;
+    if (applyConcurrency > 1) {
+      AtomicInteger threads = new AtomicInteger();
+      this.applyExecutor = Executors.newFixedThreadPool(applyConcurrency, runnable -> {
+        Thread thread = new Thread(runnable, "jetstream-apply-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    } else {
+      this.applyExecutor = null;
+    }
+  }
+
+  /**
+   * Runs the listener once the connection is established, at once when it already is. The listener is run by a thread
+   * of its own, it can block.
+   */
+  public void onConnect(Runnable listener) {
+    synchronized (this.connectListeners) {
+      if (this.nc == null) {
+        this.connectListeners.add(listener);
+        return;
       }
     }
+    runConnectListeners(List.of(listener));
+  }
+
+  /**
+   * Whether the connection is established, the calls failing before.
+   */
+  public boolean isConnected() {
+    return this.nc != null;
   }
 
-  public void updateStreams(List<StreamConfiguration> streamsToUpdate) {
+  /**
+   * Waits for the connection to be established, returning false when it is not in time.
+   */
+  public boolean awaitConnection(Duration timeout) throws InterruptedException {
+    CountDownLatch connected = new CountDownLatch(1);
+    onConnect(connected::countDown);
+    return connected.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+  }
 
-    for (StreamConfiguration streamConf : streamsToUpdate) {
+  private void runConnectListeners(List<Runnable> listeners) {
+    Thread thread = new Thread(() -> listeners.forEach(listener -> {
       try {
-        log.info("Performing stream update for {}", streamConf.getName());
-        this.nc.jetStreamManagement().updateStream(streamConf);
-      } catch (IOException | JetStreamApiException e) {
-        log.error("Unable to update stream with info: " + streamConf, e);
+        listener.run();
+      } catch (RuntimeException e) {
+        log.error("Connection listener failed", e);
       }
-    }
+    }), "nats-connected");
+    thread.setDaemon(true);
+    thread.start();
   }
 
-  public void deleteStreams(List<StreamConfiguration> streamsToDelete) {
+  /**
+   * Runs the listener each time the connection comes back after a disconnection, e.g. during a rolling restart of
+   * the NATS servers. The listener is run by the client thread dispatching the connection events, so it must not
+   * block.
+   */
+  public void onReconnect(Runnable listener) {
+    this.reconnectListeners.add(listener);
+  }
 
-    for (StreamConfiguration streamConf : streamsToDelete) {
-      try {
-        log.info("Performing stream deletion for {}", streamConf.getName());
-        this.nc.jetStreamManagement().deleteStream(streamConf.getName());
-      } catch (IOException | JetStreamApiException e) {
-        log.error("Unable to delete stream with info: " + streamConf, e);
+  @Override
+  public void connectionEvent(Connection connection, Events type) {
+    if (type == Events.CONNECTED) {
+      List<Runnable> listeners;
+      synchronized (this.connectListeners) {
+        if (this.nc != null && this.connectListeners.isEmpty()) {
+          return;
+        }
+        this.nc = connection;
+        listeners = new ArrayList<>(this.connectListeners);
+        this.connectListeners.clear();
       }
+      log.info("Connected to NATS at {}", connection.getConnectedUrl());
+      runConnectListeners(listeners);
+    } else if (type == Events.DISCONNECTED) {
+      log.warn("Disconnected from NATS, reconnecting");
+    } else if (type == Events.RECONNECTED) {
+      log.info("Reconnected to NATS at {}", connection.getConnectedUrl());
+      for (Runnable listener : this.reconnectListeners) {
+        try {
+          listener.run();
+        } catch (RuntimeException e) {
+          log.error("Reconnection listener failed", e);
+        }
+      }
+    } else if (type == Events.CLOSED) {
+      log.error("Connection to NATS closed");
     }
   }
 
-  public void createKeyValues(List<KeyValueConfiguration> keyValuesToCreate) {
+  @PreDestroy
+  void close() {
+    if (this.applyExecutor != null) {
+      this.applyExecutor.shutdownNow();
+    }
+  }
+
+  public List<String> createStreams(List<StreamConfiguration> streamsToCreate) {
+    return apply(streamsToCreate, StreamConfiguration::getName, "stream creation", "create stream",
+        written(StreamConfiguration::getName, streamConf -> jetStreamManagement().addStream(streamConf)));
+  }
+
+  public List<String> updateStreams(List<StreamConfiguration> streamsToUpdate) {
+    return apply(streamsToUpdate, StreamConfiguration::getName, "stream update", "update stream",
+        written(StreamConfiguration::getName, streamConf -> jetStreamManagement().updateStream(streamConf)));
+  }
+
+  public List<String> deleteStreams(List<StreamConfiguration> streamsToDelete) {
+    return apply(streamsToDelete, StreamConfiguration::getName, "stream deletion", "delete stream",
+        written(StreamConfiguration::getName,
+            ignoringNotFound(streamConf -> jetStreamManagement().deleteStream(streamConf.getName()))));
+  }
+
+  public List<String> createKeyValues(List<KeyValueConfiguration> keyValuesToCreate) {
+    return apply(keyValuesToCreate, KeyValueConfiguration::getBucketName, "keyValue creation", "create keyValue",
+        written(NatsConnection::backingStream, keyValueConf -> keyValueManagement().create(keyValueConf)));
+  }
+
+  public List<String> updateKeyValues(List<KeyValueConfiguration> keyValuesToUpdate) {
+    return apply(keyValuesToUpdate, KeyValueConfiguration::getBucketName, "keyValue update", "update keyValue",
+        written(NatsConnection::backingStream, keyValueConf -> keyValueManagement().update(keyValueConf)));
+  }
+
+  public List<String> deleteKeyValues(List<KeyValueConfiguration> keyValuesToDelete) {
+    return apply(keyValuesToDelete, KeyValueConfiguration::getBucketName, "keyValue deletion", "delete keyValue",
+        written(NatsConnection::backingStream,
+            ignoringNotFound(keyValueConf -> keyValueManagement().delete(keyValueConf.getBucketName()))));
+  }
+
+  /**
+   * Applies the call to every entity and returns the names of the ones which failed. The calls are independent, so
+   * they run on the apply pool when there is one, at most {@code apply.concurrency} at a time.
+   */
+  private <T> List<String> apply(List<T> entities, Function<T, String> name, String operation, String action,
+      ApiCall<T> call) {
+    if (this.applyExecutor == null || entities.size() < 2) {
+      List<String> failures = new ArrayList<>();
+      for (T entity : entities) {
+        if (!applyOne(entity, name, operation, action, call)) {
+          failures.add(name.apply(entity));
+        }
+      }
+      return failures;
+    }
 
-    for (KeyValueConfiguration keyValueConf : keyValuesToCreate) {
+    List<Future<Boolean>> results = new ArrayList<>(entities.size());
+    for (T entity : entities) {
+      results.add(this.applyExecutor.submit(() -> applyOne(entity, name, operation, action, call)));
+    }
+    List<String> failures = new ArrayList<>();
+    for (int i = 0; i < entities.size(); i++) {
       try {
-        log.info("Performing keyValue creation for {}", keyValueConf.getBucketName());
-        this.nc.keyValueManagement().create(keyValueConf);
-      } catch (IOException | JetStreamApiException e) {
-        log.error("Unable to create keyValue with info: " + keyValueConf, e);
+        if (!results.get(i).get()) {
+          failures.add(name.apply(entities.get(i)));
+        }
+      } catch (ExecutionException e) {
+        log.error("Unable to " + action + " with info: " + entities.get(i), e.getCause());
+        failures.add(name.apply(entities.get(i)));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        results.subList(i, results.size()).forEach(result -> result.cancel(true));
+        entities.subList(i, entities.size()).forEach(entity -> failures.add(name.apply(entity)));
+        break;
       }
     }
+    return failures;
+  }
+
+  private <T> boolean applyOne(T entity, Function<T, String> name, String operation, String action,
+      ApiCall<T> call) {
+    try {
+      this.writes.acquire();
+      log.info("Performing {} for {}", operation, name.apply(entity));
+      call.apply(entity);
+      return true;
+    } catch (IOException | JetStreamApiException e) {
+      log.error("Unable to " + action + " with info: " + entity, e);
+      return false;
+    }
+  }
+
+  /**
+   * Remembers the stream written by the call, so that the advisory it triggers is not taken for an out of band change.
+   */
+  private <T> ApiCall<T> written(Function<T, String> streamName, ApiCall<T> call) {
+    return entity -> {
+      long now = System.nanoTime();
+      pruneRecentWrites(now);
+      this.recentWrites.put(streamName.apply(entity), now);
+      call.apply(entity);
+    };
+  }
+
+  /**
+   * Forgets the expired writes, whose advisory may never come, at most once per expiration period.
+   */
+  private void pruneRecentWrites(long now) {
+    if (now - this.nextRecentWritesPruneNanos < 0) {
+      return;
+    }
+    this.nextRecentWritesPruneNanos = now + RECENT_WRITE_NANOS;
+    this.recentWrites.values().removeIf(writtenNanos -> now - writtenNanos >= RECENT_WRITE_NANOS);
   }
 
-  public void updateKeyValues(List<KeyValueConfiguration> keyValuesToUpdate) {
+  private static String backingStream(KeyValueConfiguration keyValueConf) {
+    return "KV_" + keyValueConf.getBucketName();
+  }
 
-    for (KeyValueConfiguration keyValueConf : keyValuesToUpdate) {
+  /**
+   * A deletion of an entity which no longer exists, e.g. deleted meanwhile by someone else, is done.
+   */
+  private static <T> ApiCall<T> ignoringNotFound(ApiCall<T> call) {
+    return entity -> {
       try {
-        log.info("Performing keyValue update for {}", keyValueConf.getBucketName());
-        this.nc.keyValueManagement().update(keyValueConf);
-      } catch (IOException | JetStreamApiException e) {
-        log.error("Unable to update keyValue with info: " + keyValueConf, e);
+        call.apply(entity);
+      } catch (JetStreamApiException e) {
+        if (e.getApiErrorCode() != NOT_FOUND_API_ERROR) {
+          throw e;
+        }
+        log.debug("{} already deleted", entity);
       }
+    };
+  }
+
+  /**
+   * Whether the controller itself wrote the given stream (the backing stream of a bucket included) in the last
+   * seconds.
+   */
+  public boolean isRecentlyWritten(String streamName) {
+    Long writtenNanos = this.recentWrites.get(streamName);
+    if (writtenNanos == null) {
+      return false;
+    }
+    if (System.nanoTime() - writtenNanos < RECENT_WRITE_NANOS) {
+      return true;
     }
+    this.recentWrites.remove(streamName, writtenNanos);
+    return false;
   }
 
-  public void deleteKeyValues(List<KeyValueConfiguration> keyValuesToDelete) {
+  @FunctionalInterface
+  private interface ApiCall<T> {
+    void apply(T entity) throws IOException, JetStreamApiException;
+  }
 
-    for (KeyValueConfiguration keyValueConf : keyValuesToDelete) {
-      try {
-        log.info("Performing keyValue deletion for {}", keyValueConf.getBucketName());
-        this.nc.keyValueManagement().delete(keyValueConf.getBucketName());
-      } catch (IOException | JetStreamApiException e) {
-        log.error("Unable to delete keyValue with info: " + keyValueConf, e);
+  /**
+   * Management contexts are created once and shared by all the calls, they hold no per-request state.
+   */
+  private JetStreamManagement jetStreamManagement() throws IOException {
+    JetStreamManagement jsm = this.jetStreamManagement;
+    if (jsm == null) {
+      synchronized (this) {
+        jsm = this.jetStreamManagement;
+        if (jsm == null) {
+          Connection connection = connection();
+          jsm = this.jetStreamOptions == null ? connection.jetStreamManagement()
+              : connection.jetStreamManagement(this.jetStreamOptions);
+          this.jetStreamManagement = jsm;
+        }
       }
     }
+    return jsm;
+  }
+
+  private KeyValueManagement keyValueManagement() throws IOException {
+    KeyValueManagement kvm = this.keyValueManagement;
+    if (kvm == null) {
+      synchronized (this) {
+        kvm = this.keyValueManagement;
+        if (kvm == null) {
+          Connection connection = connection();
+          kvm = this.jetStreamOptions == null ? connection.keyValueManagement()
+              : connection.keyValueManagement(keyValueOptions());
+          this.keyValueManagement = kvm;
+        }
+      }
+    }
+    return kvm;
   }
 
   public List<StreamInfo> getCurrentStreamConfig() throws IOException, JetStreamApiException {
-    return this.nc.jetStreamManagement().getStreams()
+    return getAllStreams()
         // filter key values
         .stream().filter(streamInfo -> !streamInfo.getConfiguration().getName().startsWith("KV_"))
         .collect(Collectors.toList());
   }
 
+  /**
+   * Every stream of the server, key value backing streams included.
+   */
+  public List<StreamInfo> getAllStreams() throws IOException, JetStreamApiException {
+    this.reads.acquire();
+    return pages(jetStreamManagement().getStreams(), LIST_PAGE_SIZE);
+  }
+
   public List<KeyValueConfiguration> getCurrentKeyValuesConfig() throws IOException, JetStreamApiException {
-    return this.nc.keyValueManagement().getStatuses().stream()
+    this.reads.acquire();
+    return pages(keyValueManagement().getStatuses(), LIST_PAGE_SIZE).stream()
         .map(KeyValueStatus::getConfiguration)
         .collect(Collectors.toList());
   }
 
+  /**
+   * Names of the streams, key value backing streams excluded, without their configuration nor state.
+   */
+  public List<String> getStreamNames() throws IOException, JetStreamApiException {
+    this.reads.acquire();
+    return pages(jetStreamManagement().getStreamNames(), NAMES_PAGE_SIZE).stream()
+        .filter(name -> !name.startsWith("KV_"))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Names of the key value buckets, without their configuration nor state.
+   */
+  public List<String> getKeyValueNames() throws IOException, JetStreamApiException {
+    this.reads.acquire();
+    return pages(keyValueManagement().getBucketNames(), NAMES_PAGE_SIZE);
+  }
+
+  /**
+   * Takes a read permit for each page of a listing after the first one. The client requests the pages by itself, so
+   * their permits are only known once it returns: the listing is not slowed down, the next reads wait for them.
+   */
+  private <T> List<T> pages(List<T> listed, int pageSize) throws InterruptedIOException {
+    this.reads.acquire((listed.size() - 1) / pageSize);
+    return listed;
+  }
+
+  /**
+   * Targeted lookup of some streams, the ones which do not exist are ignored.
+   */
+  public List<StreamInfo> getStreamsConfig(Collection<String> streamNames) throws IOException, JetStreamApiException {
+    JetStreamManagement jsm = jetStreamManagement();
+    List<StreamInfo> streams = new ArrayList<>();
+    for (String streamName : streamNames) {
+      this.reads.acquire();
+      try {
+        streams.add(jsm.getStreamInfo(streamName));
+      } catch (JetStreamApiException e) {
+        if (e.getApiErrorCode() != NOT_FOUND_API_ERROR) {
+          throw e;
+        }
+      }
+    }
+    return streams;
+  }
+
+  /**
+   * Targeted lookup of some key value buckets, the ones which do not exist are ignored.
+   */
+  public List<KeyValueConfiguration> getKeyValuesConfig(Collection<String> bucketNames)
+      throws IOException, JetStreamApiException {
+    KeyValueManagement kvm = keyValueManagement();
+    List<KeyValueConfiguration> keyValues = new ArrayList<>();
+    for (String bucketName : bucketNames) {
+      this.reads.acquire();
+      try {
+        keyValues.add(kvm.getStatus(bucketName).getConfiguration());
+      } catch (JetStreamApiException e) {
+        if (e.getApiErrorCode() != NOT_FOUND_API_ERROR) {
+          throw e;
+        }
+      }
+    }
+    return keyValues;
+  }
+
+  /**
+   * Cheap indicator of out-of-band changes on the server: the number of streams of the account (key value buckets
+   * included), read from a single account info request. It only moves when a stream is created or deleted, an edit of
+   * an existing one leaves it unchanged.
+   */
+  public long getServerChangeIndicator() throws IOException, JetStreamApiException {
+    this.reads.acquire();
+    return jetStreamManagement().getAccountStatistics().getStreams();
+  }
+
+  /**
+   * Key value bucket used by the controller itself, with a single value per key removed after the given TTL, created
+   * when missing. The calls made through it take their permits with {@link #acquireRead()} and
+   * {@link #acquireWrite()}.
+   */
+  public KeyValue leaseBucket(String bucketName, Duration ttl, int replicas) throws IOException, JetStreamApiException {
+    if (getKeyValuesConfig(List.of(bucketName)).isEmpty()) {
+      // a failure is a creation by another replica at the same time, or is raised when opening the bucket
+      createKeyValues(List.of(KeyValueConfiguration.builder()
+          .name(bucketName)
+          .maxHistoryPerKey(1)
+          .ttl(ttl)
+          .storageType(StorageType.File)
+          .replicas(replicas)
+          .build()));
+    }
+    return keyValueOf(bucketName);
+  }
+
+  /**
+   * Watches the last value of every key of a bucket, then every change.
+   */
+  public NatsKeyValueWatchSubscription watchKeyValue(String bucketName, KeyValueWatcher watcher)
+      throws IOException, JetStreamApiException, InterruptedException {
+    KeyValue keyValue = keyValueOf(bucketName);
+    // the watch creates a consumer reading the bucket
+    this.reads.acquire();
+    return keyValue.watchAll(watcher);
+  }
+
+  /**
+   * Waits for a read permit before a call made through a bucket of {@link #leaseBucket}: a get, or a listing of the
+   * keys.
+   */
+  public void acquireRead() throws InterruptedIOException {
+    this.reads.acquire();
+  }
+
+  /**
+   * Waits for a write permit before a call made through a bucket of {@link #leaseBucket}: a create, put or update.
+   */
+  public void acquireWrite() throws InterruptedIOException {
+    this.writes.acquire();
+  }
+
+  private KeyValue keyValueOf(String bucketName) throws IOException {
+    // opening a bucket looks its stream up
+    this.reads.acquire();
+    return this.jetStreamOptions == null ? connection().keyValue(bucketName)
+        : connection().keyValue(bucketName, keyValueOptions());
+  }
+
+  private Connection connection() throws IOException {
+    Connection connection = this.nc;
+    if (connection == null) {
+      throw new IOException("Not connected to NATS yet");
+    }
+    return connection;
+  }
+
+  private KeyValueOptions keyValueOptions() {
+    return KeyValueOptions.builder().jetStreamOptions(this.jetStreamOptions).build();
+  }
+
+  /**
+   * Subscribes the handler to the given subjects, on a dispatcher of its own.
+   */
+  public Dispatcher subscribe(MessageHandler handler, String... subjects) {
+    Dispatcher dispatcher = this.nc.createDispatcher(handler);
+    for (String subject : subjects) {
+      dispatcher.subscribe(subject);
+    }
+    return dispatcher;
+  }
+
+  /**
+   * The connection, null until it is established.
+   */
   public Connection getConnection() {
     return this.nc;
   }
@@ -0,0 +1,143 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.nats.client.ConnectionListener;
+import io.nats.client.JetStreamOptions;
+import io.nats.client.Nats;
+import io.nats.client.Options;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Settings of the connections to NATS, those of {@code nats.url} and of the other targets: timeouts, keep alive,
+ * reconnection and TLS. The credentials are those of {@code nats.credentials} for {@code nats.url}, each target has its
+ * own.
+ */
+@ApplicationScoped
+public class NatsConnectionOptions {
+
+  private final Optional<String> credentials;
+
+  private final Duration connectionTimeout;
+
+  private final Duration pingInterval;
+
+  private final Duration requestTimeout;
+
+  private final Duration reconnectWait;
+
+  private final int maxReconnects;
+
+  private final Optional<String> truststore;
+
+  private final Optional<String> truststorePassword;
+
+  private final Optional<String> keystore;
+
+  private final Optional<String> keystorePassword;
+
+  /**
+   * The defaults of the NATS client, retrying to reconnect forever.
+   */
+  public NatsConnectionOptions() {
+    this(Optional.empty(), Duration.ofSeconds(2), Duration.ofMinutes(2), Duration.ofSeconds(2), Duration.ofSeconds(2),
+        -1, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+  }
+
+  @Inject
+  public NatsConnectionOptions(@ConfigProperty(name = "nats.credentials") Optional<String> credentials,
+      @ConfigProperty(name = "nats.connection-timeout", defaultValue = "2s") Duration connectionTimeout,
+      @ConfigProperty(name = "nats.ping-interval", defaultValue = "2m") Duration pingInterval,
+      @ConfigProperty(name = "nats.request-timeout", defaultValue = "2s") Duration requestTimeout,
+      @ConfigProperty(name = "nats.reconnect-wait", defaultValue = "2s") Duration reconnectWait,
+      @ConfigProperty(name = "nats.max-reconnects", defaultValue = "-1") int maxReconnects,
+      @ConfigProperty(name = "nats.tls.truststore") Optional<String> truststore,
+      @ConfigProperty(name = "nats.tls.truststore-password") Optional<String> truststorePassword,
+      @ConfigProperty(name = "nats.tls.keystore") Optional<String> keystore,
+      @ConfigProperty(name = "nats.tls.keystore-password") Optional<String> keystorePassword) {
+    this.credentials = credentials;
+    this.connectionTimeout = connectionTimeout;
+    this.pingInterval = pingInterval;
+    this.requestTimeout = requestTimeout;
+    this.reconnectWait = reconnectWait;
+    this.maxReconnects = maxReconnects;
+    this.truststore = truststore;
+    this.truststorePassword = truststorePassword;
+    this.keystore = keystore;
+    this.keystorePassword = keystorePassword;
+  }
+
+  public Optional<String> getCredentials() {
+    return this.credentials;
+  }
+
+  /**
+   * Options of a connection to the given servers, separated by commas.
+   *
+   * @param credentials path of the credentials file (JWT and NKey seed) of the account, none when empty
+   * @param listener notified of the disconnections and reconnections
+   */
+  Options options(String natsUrl, Optional<String> credentials, ConnectionListener listener) throws IOException {
+    Options.Builder options = new Options.Builder()
+        .servers(natsUrl.split(","))
+        .connectionTimeout(this.connectionTimeout)
+        .pingInterval(this.pingInterval)
+        .reconnectWait(this.reconnectWait)
+        .maxReconnects(this.maxReconnects)
+        .connectionListener(listener);
+    credentials.ifPresent(path -> options.authHandler(Nats.credentials(path)));
+    if (this.truststore.isPresent() || this.keystore.isPresent()) {
+      options.sslContext(sslContext());
+    }
+    return options.build();
+  }
+
+  /**
+   * Options of the JetStream and key value API calls.
+   *
+   * @param domain JetStream domain of the streams and buckets, the one of the account when null
+   */
+  JetStreamOptions jetStreamOptions(String domain) {
+    JetStreamOptions.Builder options = JetStreamOptions.builder().requestTimeout(this.requestTimeout);
+    if (domain != null) {
+      options.domain(domain);
+    }
+    return options.build();
+  }
+
+  /**
+   * TLS with the given trusted certificates, and the given client certificate for mutual TLS.
+   */
+  private SSLContext sslContext() throws IOException {
+    try {
+      KeyManagerFactory keyManagers = null;
+      if (this.keystore.isPresent()) {
+        char[] password = this.keystorePassword.orElse("").toCharArray();
+        keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(KeyStore.getInstance(new File(this.keystore.get()), password), password);
+      }
+      TrustManagerFactory trustManagers = null;
+      if (this.truststore.isPresent()) {
+        char[] password = this.truststorePassword.orElse("").toCharArray();
+        trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(KeyStore.getInstance(new File(this.truststore.get()), password));
+      }
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(keyManagers == null ? null : keyManagers.getKeyManagers(),
+          trustManagers == null ? null : trustManagers.getTrustManagers(), null);
+      return context;
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Unable to load the NATS TLS keystore or truststore", e);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compressions accepted for the config payload, detected from their magic bytes.
+ */
+enum PayloadCompression {
+
+  GZIP(new byte[] {(byte) 0x1f, (byte) 0x8b}) {
+    @Override
+    InputStream decompress(InputStream compressed) throws IOException {
+      return new GZIPInputStream(compressed, BUFFER_SIZE);
+    }
+  },
+
+  ZSTD(new byte[] {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd}) {
+    @Override
+    InputStream decompress(InputStream compressed) throws IOException {
+      return new ZstdInputStream(compressed);
+    }
+  };
+
+  static final int MAGIC_MAX_LENGTH = 4;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final byte[] magic;
+
+  PayloadCompression(byte[] magic) {
+    this.magic = magic;
+  }
+
+  abstract InputStream decompress(InputStream compressed) throws IOException;
+
+  /**
+   * Returns the compression whose magic bytes start the given head, null for an uncompressed payload.
+   */
+  static PayloadCompression detect(byte[] head, int length) {
+    for (PayloadCompression compression : values()) {
+      if (compression.matches(head, length)) {
+        return compression;
+      }
+    }
+    return null;
+  }
+
+  private boolean matches(byte[] head, int length) {
+    if (length < this.magic.length) {
+      return false;
+    }
+    for (int i = 0; i < this.magic.length; i++) {
+      if (head[i] != this.magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
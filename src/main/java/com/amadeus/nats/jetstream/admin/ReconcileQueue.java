@@ -0,0 +1,305 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Work queue of the entities to reconcile, keyed by kind and name, processed by a single worker thread:
+ * <ul>
+ *   <li>an entity queued several times is reconciled once, at the earliest of its due times</li>
+ *   <li>an entity is never reconciled twice at once: queued while in flight, it is reconciled again afterwards</li>
+ *   <li>a failed entity is retried after an exponential backoff with jitter, reset on success, and given up after
+ *   a maximum number of attempts until the next full run</li>
+ *   <li>ready entities are taken by priority first, then in arrival order</li>
+ * </ul>
+ */
+@Slf4j
+final class ReconcileQueue {
+
+  static final int MAX_BATCH = 256;
+
+  enum Kind {
+    STREAM, KEY_VALUE
+  }
+
+  /**
+   * Reconciles the given entities and returns the keys, see {@link #key(Kind, String)}, of the ones which failed: a
+   * stream and a bucket can have the same name.
+   */
+  @FunctionalInterface
+  interface Reconciler {
+    List<String> reconcile(Set<String> streamNames, Set<String> keyValueNames);
+  }
+
+  /**
+   * Priority of an entity, lower values first. Called with the queue locked, it must not wait for a reconcile.
+   */
+  @FunctionalInterface
+  interface Priorities {
+    int priorityOf(Kind kind, String name);
+  }
+
+  private static final class Item {
+
+    private final Kind kind;
+
+    private final String name;
+
+    private final int priority;
+
+    private final long enqueuedNanos;
+
+    private long dueNanos;
+
+    private Item(Kind kind, String name, int priority, long dueNanos) {
+      this.kind = kind;
+      this.name = name;
+      this.priority = priority;
+      this.enqueuedNanos = System.nanoTime();
+      this.dueNanos = dueNanos;
+    }
+  }
+
+  private static final Comparator<Item> ORDER = Comparator.<Item>comparingInt(item -> item.priority)
+      .thenComparingLong(item -> item.enqueuedNanos);
+
+  private final Reconciler reconciler;
+
+  private final Priorities priorities;
+
+  private final long initialBackoffNanos;
+
+  private final long maxBackoffNanos;
+
+  private final int maxAttempts;
+
+  private final Map<String, Item> queued = new HashMap<>();
+
+  private final Set<String> inFlight = new HashSet<>();
+
+  private final Map<String, Item> requeuedWhileInFlight = new HashMap<>();
+
+  private final Map<String, Integer> failures = new HashMap<>();
+
+  private final Timer latency;
+
+  private final Counter retries;
+
+  private final Counter dropped;
+
+  private Thread worker;
+
+  private boolean closed;
+
+  ReconcileQueue(Reconciler reconciler, Priorities priorities, Duration initialBackoff, Duration maxBackoff,
+      int maxAttempts, MeterRegistry registry) {
+    this(reconciler, priorities, initialBackoff, maxBackoff, maxAttempts, registry, ReconcileTargets.DEFAULT_TARGET);
+  }
+
+  /**
+   * @param maxAttempts failed reconciles after which an entity is no longer retried, without limit when not positive
+   */
+  ReconcileQueue(Reconciler reconciler, Priorities priorities, Duration initialBackoff, Duration maxBackoff,
+      int maxAttempts, MeterRegistry registry, String target) {
+    this.reconciler = reconciler;
+    this.priorities = priorities;
+    this.initialBackoffNanos = Math.max(1, initialBackoff.toNanos());
+    this.maxBackoffNanos = Math.max(this.initialBackoffNanos, maxBackoff.toNanos());
+    this.maxAttempts = maxAttempts;
+    Gauge.builder("jetstream.reconcile.queue.depth", this, ReconcileQueue::depth)
+        .description("Entities waiting in the reconcile queue, retries included")
+        .tag("target", target)
+        .register(registry);
+    this.latency = Timer.builder("jetstream.reconcile.queue.latency")
+        .description("Time between the first trigger of an entity and the start of its reconcile")
+        .tag("target", target)
+        .register(registry);
+    this.retries = Counter.builder("jetstream.reconcile.queue.retries")
+        .description("Entities queued again after a failed reconcile")
+        .tag("target", target)
+        .register(registry);
+    this.dropped = Counter.builder("jetstream.reconcile.queue.dropped")
+        .description("Entities no longer retried after too many failed reconciles, left to the next full run")
+        .tag("target", target)
+        .register(registry);
+  }
+
+  /**
+   * Queues the entities for an immediate reconcile.
+   */
+  synchronized void enqueue(Collection<String> streamNames, Collection<String> keyValueNames) {
+    long now = System.nanoTime();
+    streamNames.forEach(name -> add(Kind.STREAM, name, now));
+    keyValueNames.forEach(name -> add(Kind.KEY_VALUE, name, now));
+    startWorker();
+    notifyAll();
+  }
+
+  /**
+   * Queues entities which failed outside of the queue, e.g. during a full run, for a retry after their backoff.
+   */
+  synchronized void retry(Kind kind, Collection<String> names) {
+    names.forEach(name -> retryLater(kind, name));
+    startWorker();
+    notifyAll();
+  }
+
+  synchronized int depth() {
+    return this.queued.size() + this.requeuedWhileInFlight.size();
+  }
+
+  synchronized void close() {
+    this.closed = true;
+    if (this.worker != null) {
+      this.worker.interrupt();
+    }
+  }
+
+  private void add(Kind kind, String name, long dueNanos) {
+    String key = key(kind, name);
+    Map<String, Item> target = this.inFlight.contains(key) ? this.requeuedWhileInFlight : this.queued;
+    Item item = target.get(key);
+    if (item == null) {
+      target.put(key, new Item(kind, name, this.priorities.priorityOf(kind, name), dueNanos));
+    } else if (dueNanos - item.dueNanos < 0) {
+      item.dueNanos = dueNanos;
+    }
+  }
+
+  private void startWorker() {
+    if (this.worker == null && !this.closed) {
+      this.worker = new Thread(this::work, "reconcile-queue");
+      this.worker.setDaemon(true);
+      this.worker.start();
+    }
+  }
+
+  private void work() {
+    while (true) {
+      List<Item> batch;
+      try {
+        batch = takeBatch();
+      } catch (InterruptedException e) {
+        return;
+      }
+      Set<String> streamNames = new HashSet<>();
+      Set<String> keyValueNames = new HashSet<>();
+      long now = System.nanoTime();
+      for (Item item : batch) {
+        (item.kind == Kind.STREAM ? streamNames : keyValueNames).add(item.name);
+        this.latency.record(now - item.enqueuedNanos, TimeUnit.NANOSECONDS);
+      }
+      List<String> failed;
+      try {
+        failed = this.reconciler.reconcile(streamNames, keyValueNames);
+      } catch (RuntimeException e) {
+        log.error("Reconcile of queued entities failed", e);
+        failed = batch.stream().map(item -> key(item.kind, item.name)).collect(Collectors.toList());
+      }
+      complete(batch, new HashSet<>(failed));
+    }
+  }
+
+  /**
+   * Waits for ready entities and takes the first ones, by priority then arrival order.
+   */
+  private synchronized List<Item> takeBatch() throws InterruptedException {
+    while (true) {
+      if (this.closed) {
+        throw new InterruptedException();
+      }
+      long now = System.nanoTime();
+      List<Item> ready = new ArrayList<>();
+      long nextDue = Long.MAX_VALUE;
+      for (Item item : this.queued.values()) {
+        if (item.dueNanos - now <= 0) {
+          ready.add(item);
+        } else {
+          nextDue = Math.min(nextDue, item.dueNanos - now);
+        }
+      }
+      if (!ready.isEmpty()) {
+        ready.sort(ORDER);
+        List<Item> batch = new ArrayList<>(ready.subList(0, Math.min(MAX_BATCH, ready.size())));
+        for (Item item : batch) {
+          String key = key(item.kind, item.name);
+          this.queued.remove(key);
+          this.inFlight.add(key);
+        }
+        return batch;
+      }
+      if (nextDue == Long.MAX_VALUE) {
+        wait();
+      } else {
+        TimeUnit.NANOSECONDS.timedWait(this, nextDue);
+      }
+    }
+  }
+
+  private synchronized void complete(List<Item> batch, Set<String> failedKeys) {
+    for (Item item : batch) {
+      String key = key(item.kind, item.name);
+      this.inFlight.remove(key);
+      if (failedKeys.contains(key)) {
+        retryLater(item.kind, item.name);
+      } else {
+        this.failures.remove(key);
+      }
+      Item requeued = this.requeuedWhileInFlight.remove(key);
+      if (requeued != null) {
+        add(requeued.kind, requeued.name, requeued.dueNanos);
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Queues the failed entity again after its backoff, or gives up on it once it failed too many times in a row: the
+   * next full run reconciles it again, with a fresh backoff.
+   */
+  private void retryLater(Kind kind, String name) {
+    String key = key(kind, name);
+    int attempt = this.failures.merge(key, 1, Integer::sum);
+    if (this.maxAttempts > 0 && attempt >= this.maxAttempts) {
+      log.warn("Giving up on {} after {} failed attempts, left to the next full run", key, attempt);
+      this.failures.remove(key);
+      this.dropped.increment();
+      return;
+    }
+    long backoff = backoff(attempt);
+    log.debug("Retrying {} in {} ms", key, TimeUnit.NANOSECONDS.toMillis(backoff));
+    this.retries.increment();
+    add(kind, name, System.nanoTime() + backoff);
+  }
+
+  /**
+   * Exponential backoff of the given attempt, between half and one and a half times its nominal value.
+   */
+  private long backoff(int attempt) {
+    long nominal = this.initialBackoffNanos << Math.min(attempt - 1, 30);
+    if (nominal <= 0 || nominal > this.maxBackoffNanos) {
+      nominal = this.maxBackoffNanos;
+    }
+    return nominal / 2 + ThreadLocalRandom.current().nextLong(nominal + 1);
+  }
+
+  static String key(Kind kind, String name) {
+    return kind + ":" + name;
+  }
+}
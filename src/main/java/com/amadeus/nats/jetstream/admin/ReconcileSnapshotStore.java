@@ -0,0 +1,82 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.comparators.EntityFingerprint;
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.ReconcileSnapshot;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * Persists the fingerprints of the last applied desired state to a local file (typically on an emptyDir or a
+ * persistent volume), so that a restarted controller only reconciles what changed since.
+ */
+@ApplicationScoped
+@Slf4j
+public class ReconcileSnapshotStore {
+
+  private final Path path;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Inject
+  public ReconcileSnapshotStore(@ConfigProperty(name = "reconcile.snapshot.path") Optional<String> path) {
+    this.path = path.filter(value -> !value.isBlank()).map(Paths::get).orElse(null);
+  }
+
+  public boolean isEnabled() {
+    return this.path != null;
+  }
+
+  public Optional<ReconcileSnapshot> load() {
+    if (this.path == null || !Files.isRegularFile(this.path)) {
+      return Optional.empty();
+    }
+    try {
+      ReconcileSnapshot snapshot = this.mapper.readValue(this.path.toFile(), ReconcileSnapshot.class);
+      log.info("Reconcile snapshot loaded from {}: {}", this.path, snapshot);
+      return Optional.of(snapshot);
+    } catch (IOException e) {
+      log.warn("Unable to read the reconcile snapshot " + this.path + ", starting cold", e);
+      return Optional.empty();
+    }
+  }
+
+  public void save(JetstreamConfigs jetstreamConfigs) {
+    if (this.path == null) {
+      return;
+    }
+    try {
+      Path temporary = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+      this.mapper.writeValue(temporary.toFile(), snapshotOf(jetstreamConfigs));
+      Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Unable to save the reconcile snapshot " + this.path, e);
+    }
+  }
+
+  static ReconcileSnapshot snapshotOf(JetstreamConfigs jetstreamConfigs) {
+    ReconcileSnapshot snapshot = new ReconcileSnapshot();
+    snapshot.setSavedAt(System.currentTimeMillis());
+    for (StreamConfig streamConfig : jetstreamConfigs.getStreamConfigs()) {
+      snapshot.getStreams().put(streamConfig.getStreamName(), EntityFingerprint.of(streamConfig));
+    }
+    if (jetstreamConfigs.getKeyValueConfigs() != null) {
+      for (KeyValueConfig keyValueConfig : jetstreamConfigs.getKeyValueConfigs()) {
+        snapshot.getKeyValues().put(keyValueConfig.getName(), EntityFingerprint.of(keyValueConfig));
+      }
+    }
+    return snapshot;
+  }
+}
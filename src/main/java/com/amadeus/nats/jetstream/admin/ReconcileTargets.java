@@ -0,0 +1,246 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Clusters, accounts or JetStream domains reconciled in addition to the default one ({@code nats.url}), listed by
+ * {@code targets}. Each target has its own connection, with its own credentials and rate limits, and its own reconcile
+ * pipeline: the desired state is resolved once and shared, the plans are computed and applied per target, all
+ * targets at the same time. The metrics of each pipeline are tagged with the name of its target.
+ * <p>
+ * A target which cannot be reached is connected again at the next run, without delaying the other ones.
+ */
+@ApplicationScoped
+@Slf4j
+public class ReconcileTargets {
+
+  /**
+   * Name of the target of {@code nats.url}.
+   */
+  static final String DEFAULT_TARGET = "default";
+
+  @FunctionalInterface
+  interface Connector {
+    NatsConnection connect() throws IOException, InterruptedException;
+  }
+
+  private final Map<String, Target> targets = new LinkedHashMap<>();
+
+  private final ExecutorService executor;
+
+  /**
+   * No other target.
+   */
+  public ReconcileTargets() {
+    this(Map.of(), null);
+  }
+
+  @Inject
+  public ReconcileTargets(Config config, NatsConnectionOptions options, MeterRegistry registry,
+      @ConfigProperty(name = "targets") Optional<List<String>> names,
+      @ConfigProperty(name = "apply.concurrency", defaultValue = "8") int applyConcurrency,
+      @ConfigProperty(name = "api.rate-limit.reads", defaultValue = "100") double readsPerSecond,
+      @ConfigProperty(name = "api.rate-limit.writes", defaultValue = "50") double writesPerSecond,
+      @ConfigProperty(name = "api.rate-limit.burst", defaultValue = "10") int burst) {
+    this(connectors(config, options, registry, names.orElse(List.of()), applyConcurrency, readsPerSecond,
+        writesPerSecond, burst), registry);
+  }
+
+  ReconcileTargets(Map<String, Connector> connectors, MeterRegistry registry) {
+    connectors.forEach((name, connector) -> {
+      if (DEFAULT_TARGET.equals(name)) {
+        throw new IllegalArgumentException("Target name " + DEFAULT_TARGET + " is reserved for nats.url");
+      }
+      this.targets.put(name, new Target(name, connector, registry));
+    });
+    if (this.targets.isEmpty()) {
+      this.executor = null;
+    } else {
+      AtomicInteger threads = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(this.targets.size(), runnable -> {
+        Thread thread = new Thread(runnable, "reconcile-target-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      log.info("Reconciling the targets {} in addition to the default one", this.targets.keySet());
+    }
+  }
+
+  /**
+   * Connection of each target, from {@code targets.<name>.url}, {@code targets.<name>.credentials} and
+   * {@code targets.<name>.domain}, with the connection settings and rate limits of the default one.
+   */
+  private static Map<String, Connector> connectors(Config config, NatsConnectionOptions options,
+      MeterRegistry registry, List<String> names, int applyConcurrency, double readsPerSecond,
+      double writesPerSecond, int burst) {
+    Map<String, Connector> connectors = new LinkedHashMap<>();
+    for (String name : names) {
+      String url = config.getValue("targets." + name + ".url", String.class);
+      Optional<String> credentials = config.getOptionalValue("targets." + name + ".credentials", String.class);
+      String domain = config.getOptionalValue("targets." + name + ".domain", String.class).orElse(null);
+      connectors.put(name, () -> new NatsConnection(url, credentials, domain, options, applyConcurrency,
+          new ApiRateLimiter(readsPerSecond, burst).register(registry, "read", name),
+          new ApiRateLimiter(writesPerSecond, burst).register(registry, "write", name)));
+    }
+    return connectors;
+  }
+
+  void onStop(@Observes ShutdownEvent event) {
+    stop();
+  }
+
+  synchronized void stop() {
+    if (this.executor != null) {
+      this.executor.shutdownNow();
+    }
+    this.targets.values().forEach(Target::close);
+  }
+
+  public Set<String> getNames() {
+    return this.targets.keySet();
+  }
+
+  /**
+   * Triggers a run of every target, in the background. A target already waiting for its run is not triggered twice.
+   */
+  void reconcileAll(JetstreamUpdatesScheduler primary) {
+    this.targets.values().forEach(target -> {
+      if (target.pending.compareAndSet(false, true)) {
+        this.executor.execute(() -> target.run(primary));
+      }
+    });
+  }
+
+  /**
+   * Runs every target at the same time and waits for them, returning whether every entity of every target was applied.
+   */
+  boolean reconcileOnce(JetstreamUpdatesScheduler primary) {
+    List<Future<Boolean>> results = new ArrayList<>();
+    this.targets.values().forEach(target -> results.add(this.executor.submit(() -> target.runOnce(primary))));
+    boolean applied = true;
+    for (Future<Boolean> result : results) {
+      try {
+        applied &= result.get();
+      } catch (ExecutionException e) {
+        log.error("Reconcile of a target failed", e.getCause());
+        applied = false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return applied;
+  }
+
+  /**
+   * Queues the entities for a targeted reconcile on every connected target, the others reconcile everything once
+   * connected.
+   */
+  void enqueue(Set<String> streamNames, Set<String> keyValueNames) {
+    this.targets.values().forEach(target -> {
+      JetstreamUpdatesScheduler pipeline = target.pipeline;
+      if (pipeline != null) {
+        pipeline.enqueue(streamNames, keyValueNames);
+      }
+    });
+  }
+
+  private static final class Target {
+
+    private final String name;
+
+    private final Connector connector;
+
+    private final Counter failedRuns;
+
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    private volatile NatsConnection connection;
+
+    private volatile JetstreamUpdatesScheduler pipeline;
+
+    private Target(String name, Connector connector, MeterRegistry registry) {
+      this.name = name;
+      this.connector = connector;
+      this.failedRuns = Counter.builder("jetstream.reconcile.runs")
+          .description("Reconcile runs, skipped when neither the config nor the server changed, failed when an "
+              + "entity could not be applied")
+          .tag("result", "failed")
+          .tag("target", name)
+          .register(registry);
+    }
+
+    private synchronized void run(JetstreamUpdatesScheduler primary) {
+      this.pending.set(false);
+      try {
+        connect(primary).updateStreams();
+      } catch (IOException e) {
+        log.error("Unable to connect to target {}, retried at next run", this.name, e);
+        this.failedRuns.increment();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        log.error("Reconcile of target {} failed", this.name, e);
+        this.failedRuns.increment();
+      }
+    }
+
+    private synchronized boolean runOnce(JetstreamUpdatesScheduler primary) throws InterruptedException {
+      try {
+        return connect(primary).reconcileOnce();
+      } catch (IOException e) {
+        log.error("Unable to connect to target {}", this.name, e);
+        this.failedRuns.increment();
+        return false;
+      }
+    }
+
+    private JetstreamUpdatesScheduler connect(JetstreamUpdatesScheduler primary)
+        throws IOException, InterruptedException {
+      if (this.pipeline == null) {
+        this.connection = this.connector.connect();
+        this.pipeline = primary.forTarget(this.connection, this.name);
+        log.info("Connected to target {}", this.name);
+      }
+      return this.pipeline;
+    }
+
+    private void close() {
+      JetstreamUpdatesScheduler closedPipeline = this.pipeline;
+      if (closedPipeline != null) {
+        closedPipeline.close();
+      }
+      NatsConnection closedConnection = this.connection;
+      if (closedConnection != null) {
+        closedConnection.close();
+        try {
+          closedConnection.getConnection().close();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+}
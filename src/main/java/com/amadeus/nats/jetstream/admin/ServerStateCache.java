@@ -0,0 +1,300 @@
+package com.amadeus.nats.jetstream.admin;
+
+import io.nats.client.Dispatcher;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.KeyValueStatus;
+import io.nats.client.api.StreamInfo;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Server streams (key value backing streams included) kept current by the JetStream stream advisories, so that
+ * reconcile runs read them from memory instead of listing the server. The server is only listed again after
+ * {@code reconcile.advisories.full-list-interval}, plus a random jitter, to catch up with a missed advisory.
+ * <p>
+ * Each created, updated or deleted stream is looked up again and reconciled right away: an out of band change of a
+ * managed entity is reverted within milliseconds instead of at the next run. The advisories of the writes of the
+ * controller itself only update the state. Only the replica which reconciles a stream, the leader and the owner of its
+ * shard, looks it up: the API load of the advisories does not grow with the number of replicas.
+ */
+@ApplicationScoped
+@Slf4j
+public class ServerStateCache implements MessageHandler {
+
+  static final String ADVISORY_PREFIX = "$JS.EVENT.ADVISORY.STREAM.";
+
+  static final String CREATED = "CREATED";
+
+  static final String UPDATED = "UPDATED";
+
+  static final String DELETED = "DELETED";
+
+  private static final String KEY_VALUE_STREAM_PREFIX = "KV_";
+
+  private final NatsConnection nc;
+
+  private final JetstreamUpdatesScheduler scheduler;
+
+  private final LeaderElection leaderElection;
+
+  private final ShardMembership shards;
+
+  private final boolean enabled;
+
+  private final long fullListIntervalNanos;
+
+  private final long fullListJitterNanos;
+
+  private final Map<String, StreamInfo> streams = new ConcurrentHashMap<>();
+
+  private final Set<String> pendingStreams = new HashSet<>();
+
+  private volatile boolean primed;
+
+  private volatile long nextFullListNanos;
+
+  private volatile long primedShardVersion;
+
+  private ExecutorService repairer;
+
+  private Dispatcher dispatcher;
+
+  /**
+   * Disabled cache, every read lists the server.
+   */
+  public ServerStateCache(NatsConnection nc) {
+    this(nc, null, new LeaderElection(), new ShardMembership(), false, Duration.ZERO, Duration.ZERO);
+  }
+
+  @Inject
+  public ServerStateCache(NatsConnection nc, JetstreamUpdatesScheduler scheduler, LeaderElection leaderElection,
+      ShardMembership shards,
+      @ConfigProperty(name = "reconcile.advisories.enabled", defaultValue = "false") boolean enabled,
+      @ConfigProperty(name = "reconcile.advisories.full-list-interval", defaultValue = "6h") Duration fullListInterval,
+      @ConfigProperty(name = "reconcile.advisories.full-list-jitter", defaultValue = "30m") Duration fullListJitter) {
+    this.nc = nc;
+    this.scheduler = scheduler;
+    this.leaderElection = leaderElection;
+    this.shards = shards;
+    this.enabled = enabled;
+    this.fullListIntervalNanos = fullListInterval.toNanos();
+    this.fullListJitterNanos = fullListJitter.toNanos();
+  }
+
+  void onStart(@Observes StartupEvent event) {
+    if (this.enabled) {
+      this.nc.onConnect(this::start);
+    }
+  }
+
+  void onStop(@Observes ShutdownEvent event) {
+    stop();
+  }
+
+  synchronized void start() {
+    if (this.repairer != null) {
+      return;
+    }
+    this.repairer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "server-state-repairer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.dispatcher = this.nc.subscribe(this, ADVISORY_PREFIX + CREATED + ".*", ADVISORY_PREFIX + UPDATED + ".*",
+        ADVISORY_PREFIX + DELETED + ".*");
+    log.info("Watching the stream advisories of the server");
+  }
+
+  synchronized void stop() {
+    if (this.dispatcher != null) {
+      this.nc.getConnection().closeDispatcher(this.dispatcher);
+      this.dispatcher = null;
+    }
+    if (this.repairer != null) {
+      this.repairer.shutdownNow();
+      this.repairer = null;
+    }
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  /**
+   * Forgets the cached state, the next read lists the server, e.g. when advisories may have been missed.
+   */
+  public void invalidate() {
+    this.primed = false;
+  }
+
+  /**
+   * Server streams, key value backing streams excluded.
+   */
+  public List<StreamInfo> getStreams() throws IOException, JetStreamApiException {
+    refreshIfDue();
+    return this.streams.values().stream()
+        .filter(streamInfo -> !streamInfo.getConfiguration().getName().startsWith(KEY_VALUE_STREAM_PREFIX))
+        .collect(Collectors.toList());
+  }
+
+  public List<KeyValueConfiguration> getKeyValues() throws IOException, JetStreamApiException {
+    refreshIfDue();
+    return this.streams.values().stream()
+        .filter(streamInfo -> streamInfo.getConfiguration().getName().startsWith(KEY_VALUE_STREAM_PREFIX))
+        .map(streamInfo -> new KeyValueStatus(streamInfo).getConfiguration())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Targeted lookup of some streams, from memory once the cache is primed.
+   */
+  public List<StreamInfo> getStreams(Collection<String> streamNames) throws IOException, JetStreamApiException {
+    if (!isPrimed()) {
+      return this.nc.getStreamsConfig(streamNames);
+    }
+    return streamNames.stream().map(this.streams::get).filter(Objects::nonNull).collect(Collectors.toList());
+  }
+
+  /**
+   * Targeted lookup of some key value buckets, from memory once the cache is primed.
+   */
+  public List<KeyValueConfiguration> getKeyValues(Collection<String> bucketNames)
+      throws IOException, JetStreamApiException {
+    if (!isPrimed()) {
+      return this.nc.getKeyValuesConfig(bucketNames);
+    }
+    return bucketNames.stream().map(bucketName -> this.streams.get(KEY_VALUE_STREAM_PREFIX + bucketName))
+        .filter(Objects::nonNull)
+        .map(streamInfo -> new KeyValueStatus(streamInfo).getConfiguration())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Whether the state is listed, since the last change of the shards: the advisories of the streams of another shard
+   * are not followed.
+   */
+  private boolean isPrimed() {
+    return this.primed && this.primedShardVersion == this.shards.getVersion();
+  }
+
+  private synchronized void refreshIfDue() throws IOException, JetStreamApiException {
+    if (isPrimed() && System.nanoTime() - this.nextFullListNanos < 0) {
+      return;
+    }
+    this.primedShardVersion = this.shards.getVersion();
+    List<StreamInfo> listed = this.nc.getAllStreams();
+    this.streams.clear();
+    listed.forEach(streamInfo -> this.streams.put(streamInfo.getConfiguration().getName(), streamInfo));
+    long jitter = this.fullListJitterNanos > 0 ? ThreadLocalRandom.current().nextLong(this.fullListJitterNanos) : 0;
+    this.nextFullListNanos = System.nanoTime() + this.fullListIntervalNanos + jitter;
+    this.primed = true;
+    log.debug("Server state listed: {} streams", listed.size());
+  }
+
+  @Override
+  public void onMessage(Message message) {
+    String subject = message.getSubject();
+    if (!subject.startsWith(ADVISORY_PREFIX)) {
+      return;
+    }
+    String[] tokens = subject.substring(ADVISORY_PREFIX.length()).split("\\.", 2);
+    if (tokens.length < 2) {
+      return;
+    }
+    String action = tokens[0];
+    String streamName = tokens[1];
+    log.debug("Stream {} {}", streamName, action);
+    if (!this.leaderElection.isLeader()) {
+      // followers do not reconcile, they list the server again once elected
+      invalidate();
+      return;
+    }
+    if (!owns(streamName)) {
+      // reconciled by another replica, listed again when the shards change
+      this.streams.remove(streamName);
+      return;
+    }
+    if (DELETED.equals(action)) {
+      this.streams.remove(streamName);
+    }
+    synchronized (this) {
+      this.pendingStreams.add(streamName);
+      if (this.repairer != null) {
+        this.repairer.execute(this::repairPending);
+      }
+    }
+  }
+
+  private boolean owns(String streamName) {
+    return streamName.startsWith(KEY_VALUE_STREAM_PREFIX)
+        ? this.shards.ownsKeyValue(streamName.substring(KEY_VALUE_STREAM_PREFIX.length()))
+        : this.shards.ownsStream(streamName);
+  }
+
+  /**
+   * Looks up the changed streams again and reconciles them. Changes received while a repair was running are coalesced
+   * in a single one.
+   */
+  private void repairPending() {
+    Set<String> streamNames;
+    synchronized (this) {
+      streamNames = new HashSet<>(this.pendingStreams);
+      this.pendingStreams.clear();
+    }
+    if (streamNames.isEmpty()) {
+      return;
+    }
+    try {
+      Set<String> found = new HashSet<>();
+      for (StreamInfo streamInfo : this.nc.getStreamsConfig(streamNames)) {
+        this.streams.put(streamInfo.getConfiguration().getName(), streamInfo);
+        found.add(streamInfo.getConfiguration().getName());
+      }
+      streamNames.stream().filter(name -> !found.contains(name)).forEach(this.streams::remove);
+
+      Set<String> repairedStreams = new HashSet<>();
+      Set<String> repairedKeyValues = new HashSet<>();
+      for (String streamName : streamNames) {
+        if (this.nc.isRecentlyWritten(streamName)) {
+          // the advisory of a write of the controller itself, only the state above is updated
+          continue;
+        }
+        if (streamName.startsWith(KEY_VALUE_STREAM_PREFIX)) {
+          repairedKeyValues.add(streamName.substring(KEY_VALUE_STREAM_PREFIX.length()));
+        } else {
+          repairedStreams.add(streamName);
+        }
+      }
+      if (!repairedStreams.isEmpty() || !repairedKeyValues.isEmpty()) {
+        this.scheduler.enqueue(repairedStreams, repairedKeyValues);
+      }
+    } catch (IOException | JetStreamApiException e) {
+      log.error("Unable to look up the streams changed on the server, listing it again on next run", e);
+      invalidate();
+    } catch (RuntimeException e) {
+      log.error("Repair triggered by a stream advisory failed", e);
+    }
+  }
+}
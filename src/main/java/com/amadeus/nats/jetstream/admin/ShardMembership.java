@@ -0,0 +1,229 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.comparators.ShardRing;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.KeyValue;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Split of the streams and buckets across the controller replicas running side by side. Each replica registers
+ * itself as a key of a NATS key value bucket whose TTL is {@code sharding.member-ttl}, renewed at each heartbeat, so
+ * that the keys of the bucket are the live members. Entities are assigned to the members by consistent hashing of
+ * their names, and each replica only reconciles its own slice.
+ * <p>
+ * A change of members moves about one share of the entities, and the replica runs a full reconcile of its new slice
+ * at once. A replica which cannot renew its membership in time owns nothing until it can again, as the others have
+ * taken its slice over meanwhile.
+ * <p>
+ * Sharding and leader election are exclusive: a follower reconciles nothing, so its slice would never be reconciled.
+ */
+@ApplicationScoped
+@Slf4j
+public class ShardMembership {
+
+  static final String STREAM = "stream";
+
+  static final String KEY_VALUE = "keyValue";
+
+  private final NatsConnection nc;
+
+  private final JetstreamUpdatesScheduler scheduler;
+
+  private final boolean enabled;
+
+  private final String bucket;
+
+  private final Duration memberTtl;
+
+  private final Duration heartbeatInterval;
+
+  private final int virtualNodes;
+
+  private final int replicas;
+
+  private final String identity;
+
+  private volatile ShardRing ring = ShardRing.EMPTY;
+
+  private volatile long version;
+
+  private long lastHeartbeatNanos;
+
+  private KeyValue keyValue;
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * Disabled sharding, this replica owns every entity.
+   */
+  public ShardMembership() {
+    this(null, null, null, false, "", Duration.ZERO, Duration.ZERO, 1, 1, Optional.empty(), false);
+  }
+
+  @Inject
+  public ShardMembership(NatsConnection nc, JetstreamUpdatesScheduler scheduler, MeterRegistry registry,
+      @ConfigProperty(name = "sharding.enabled", defaultValue = "false") boolean enabled,
+      @ConfigProperty(name = "sharding.bucket", defaultValue = "jetstream-controller-members") String bucket,
+      @ConfigProperty(name = "sharding.member-ttl", defaultValue = "10s") Duration memberTtl,
+      @ConfigProperty(name = "sharding.heartbeat-interval", defaultValue = "3s") Duration heartbeatInterval,
+      @ConfigProperty(name = "sharding.virtual-nodes", defaultValue = "128") int virtualNodes,
+      @ConfigProperty(name = "sharding.replicas", defaultValue = "1") int replicas,
+      @ConfigProperty(name = "sharding.identity") Optional<String> identity,
+      @ConfigProperty(name = "leader-election.enabled", defaultValue = "false") boolean leaderElectionEnabled) {
+    if (enabled && leaderElectionEnabled) {
+      throw new IllegalArgumentException("sharding.enabled and leader-election.enabled are exclusive, enable only one");
+    }
+    this.nc = nc;
+    this.scheduler = scheduler;
+    this.enabled = enabled;
+    this.bucket = bucket;
+    this.memberTtl = memberTtl;
+    this.heartbeatInterval = heartbeatInterval;
+    this.virtualNodes = virtualNodes;
+    this.replicas = replicas;
+    this.identity = LeaderElection.resolveIdentity(identity);
+    if (registry != null) {
+      Gauge.builder("jetstream.shard.members", this, membership -> membership.ring.getMembers().size())
+          .description("Live controller replicas the streams and buckets are split across")
+          .register(registry);
+    }
+  }
+
+  void onStart(@Observes StartupEvent event) {
+    if (this.enabled) {
+      start();
+    }
+  }
+
+  void onStop(@Observes ShutdownEvent event) {
+    stop();
+  }
+
+  synchronized void start() {
+    if (this.executor != null) {
+      return;
+    }
+    // a second thread runs the reconcile of a new slice, without delaying the heartbeats
+    this.executor = Executors.newScheduledThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "shard-membership");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.scheduleWithFixedDelay(this::heartbeat, 0, this.heartbeatInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+    log.info("Sharding started in bucket {} as {}", this.bucket, this.identity);
+  }
+
+  /**
+   * Leaves the members, so that the others take the slice over at their next heartbeat instead of waiting for the TTL.
+   */
+  synchronized void stop() {
+    if (this.executor == null) {
+      return;
+    }
+    this.executor.shutdownNow();
+    this.executor = null;
+    this.ring = ShardRing.EMPTY;
+    this.version++;
+    if (this.keyValue != null) {
+      try {
+        this.keyValue.delete(this.identity);
+        log.info("Left the members");
+      } catch (IOException | JetStreamApiException e) {
+        log.warn("Unable to leave the members, the others take over once the membership expires", e);
+      }
+    }
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  /**
+   * Whether this replica reconciles the given stream, always when sharding is disabled.
+   */
+  public boolean ownsStream(String streamName) {
+    return owns(STREAM, streamName);
+  }
+
+  /**
+   * Whether this replica reconciles the given key value bucket, always when sharding is disabled.
+   */
+  public boolean ownsKeyValue(String bucketName) {
+    return owns(KEY_VALUE, bucketName);
+  }
+
+  private boolean owns(String kind, String name) {
+    return !this.enabled || this.identity.equals(this.ring.ownerOf(kind, name));
+  }
+
+  /**
+   * Incremented at each change of the members, i.e. of the slice of this replica.
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * The membership bucket, never deleted by the controller.
+   */
+  public Set<String> getReservedKeyValues() {
+    return this.enabled ? Set.of(this.bucket) : Set.of();
+  }
+
+  synchronized void heartbeat() {
+    long started = System.nanoTime();
+    try {
+      if (this.keyValue == null) {
+        this.keyValue = this.nc.leaseBucket(this.bucket, this.memberTtl, this.replicas);
+      }
+      this.nc.acquireWrite();
+      this.keyValue.put(this.identity, this.identity.getBytes(StandardCharsets.UTF_8));
+      this.lastHeartbeatNanos = started;
+      this.nc.acquireRead();
+      Set<String> members = new HashSet<>(this.keyValue.keys());
+      members.add(this.identity);
+      if (!members.equals(new HashSet<>(this.ring.getMembers()))) {
+        rebalance(new ShardRing(members, this.virtualNodes));
+      }
+    } catch (IOException | JetStreamApiException e) {
+      if (!this.ring.isEmpty() && System.nanoTime() - this.lastHeartbeatNanos >= this.memberTtl.toNanos()) {
+        log.warn("Membership expired, reconciling nothing until it is renewed", e);
+        rebalance(ShardRing.EMPTY);
+      } else {
+        log.warn("Unable to renew the membership", e);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      log.error("Shard membership failed", e);
+    }
+  }
+
+  private void rebalance(ShardRing newRing) {
+    this.ring = newRing;
+    this.version++;
+    log.info("Shard members changed to {}", newRing.getMembers());
+    if (!newRing.isEmpty() && this.executor != null) {
+      this.executor.execute(this.scheduler::updateStreams);
+    }
+  }
+}
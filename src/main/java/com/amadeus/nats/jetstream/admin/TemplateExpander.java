@@ -0,0 +1,185 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.KeyValueTemplate;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamTemplate;
+import com.amadeus.nats.jetstream.admin.model.TemplateRange;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Expands the stream and key value templates of a config into concrete configs. Expansions are memoized per template,
+ * so that a family whose template did not change is not generated again when its config file is read again. A member
+ * named as another entity of the same config, ignoring case, makes the config rejected.
+ */
+@Slf4j
+final class TemplateExpander {
+
+  static final String PLACEHOLDER = "${value}";
+
+  static final int DEFAULT_MAX_VALUES = 10000;
+
+  private final int maxValues;
+
+  private final Map<StreamTemplate, List<StreamConfig>> streamFamilies = new ConcurrentHashMap<>();
+
+  private final Map<KeyValueTemplate, List<KeyValueConfig>> keyValueFamilies = new ConcurrentHashMap<>();
+
+  TemplateExpander() {
+    this(DEFAULT_MAX_VALUES);
+  }
+
+  /**
+   * @param maxValues maximum number of members of a family
+   */
+  TemplateExpander(int maxValues) {
+    this.maxValues = maxValues;
+  }
+
+  /**
+   * Appends the members of every family to the concrete configs.
+   *
+   * @throws IllegalArgumentException when a template is invalid or a member is already defined
+   */
+  void expand(JetstreamConfigs jetstreamConfigs) {
+    if (jetstreamConfigs.getStreamTemplates() != null && !jetstreamConfigs.getStreamTemplates().isEmpty()) {
+      Map<String, String> owners = new HashMap<>();
+      jetstreamConfigs.getStreamConfigs().forEach(streamConfig -> owners.putIfAbsent(
+          streamConfig.getStreamName().toLowerCase(Locale.ROOT), "streamConfigs"));
+      for (StreamTemplate template : jetstreamConfigs.getStreamTemplates()) {
+        List<StreamConfig> family = this.streamFamilies.computeIfAbsent(template, this::expandStreams);
+        for (StreamConfig streamConfig : family) {
+          JetstreamConfigResolver.checkNotOwned(owners, "Stream", streamConfig.getStreamName(),
+              "template " + template.getName());
+        }
+        jetstreamConfigs.getStreamConfigs().addAll(family);
+      }
+    }
+    if (jetstreamConfigs.getKeyValueTemplates() != null && !jetstreamConfigs.getKeyValueTemplates().isEmpty()) {
+      if (jetstreamConfigs.getKeyValueConfigs() == null) {
+        jetstreamConfigs.setKeyValueConfigs(new ArrayList<>());
+      }
+      Map<String, String> owners = new HashMap<>();
+      jetstreamConfigs.getKeyValueConfigs().forEach(keyValueConfig -> owners.putIfAbsent(
+          keyValueConfig.getName().toLowerCase(Locale.ROOT), "keyValueConfigs"));
+      for (KeyValueTemplate template : jetstreamConfigs.getKeyValueTemplates()) {
+        List<KeyValueConfig> family = this.keyValueFamilies.computeIfAbsent(template, this::expandKeyValues);
+        for (KeyValueConfig keyValueConfig : family) {
+          JetstreamConfigResolver.checkNotOwned(owners, "KeyValue", keyValueConfig.getName(),
+              "template " + template.getName());
+        }
+        jetstreamConfigs.getKeyValueConfigs().addAll(family);
+      }
+    }
+  }
+
+  /**
+   * Forgets the expansions of the templates no longer used by any of the given configs.
+   */
+  void retainAll(Collection<JetstreamConfigs> live) {
+    Set<StreamTemplate> streamTemplates = new HashSet<>();
+    Set<KeyValueTemplate> keyValueTemplates = new HashSet<>();
+    for (JetstreamConfigs jetstreamConfigs : live) {
+      if (jetstreamConfigs.getStreamTemplates() != null) {
+        streamTemplates.addAll(jetstreamConfigs.getStreamTemplates());
+      }
+      if (jetstreamConfigs.getKeyValueTemplates() != null) {
+        keyValueTemplates.addAll(jetstreamConfigs.getKeyValueTemplates());
+      }
+    }
+    this.streamFamilies.keySet().retainAll(streamTemplates);
+    this.keyValueFamilies.keySet().retainAll(keyValueTemplates);
+  }
+
+  private List<StreamConfig> expandStreams(StreamTemplate template) {
+    StreamConfig spec = template.getSpec();
+    if (spec == null || spec.getStreamName() == null || !spec.getStreamName().contains(PLACEHOLDER)) {
+      throw new IllegalArgumentException("Stream template " + template.getName() + " must define a spec with "
+          + PLACEHOLDER + " in its streamName");
+    }
+    List<StreamConfig> family = new ArrayList<>();
+    for (String value : valuesOf(template.getName(), template.getValues(), template.getRange())) {
+      StreamConfig streamConfig = new StreamConfig();
+      streamConfig.setStreamName(substitute(spec.getStreamName(), value));
+      if (spec.getSubjects() != null) {
+        List<String> subjects = new ArrayList<>(spec.getSubjects().size());
+        for (String subject : spec.getSubjects()) {
+          subjects.add(substitute(subject, value));
+        }
+        streamConfig.setSubjects(subjects);
+      }
+      streamConfig.setStorage(spec.getStorage());
+      streamConfig.setReplicas(spec.getReplicas());
+      streamConfig.setRetention(spec.getRetention());
+      streamConfig.setMaxAge(spec.getMaxAge());
+      streamConfig.setPriority(spec.getPriority());
+      family.add(streamConfig);
+    }
+    log.debug("Stream template {} expanded to {} streams", template.getName(), family.size());
+    return List.copyOf(family);
+  }
+
+  private List<KeyValueConfig> expandKeyValues(KeyValueTemplate template) {
+    KeyValueConfig spec = template.getSpec();
+    if (spec == null || spec.getName() == null || !spec.getName().contains(PLACEHOLDER)) {
+      throw new IllegalArgumentException("KeyValue template " + template.getName() + " must define a spec with "
+          + PLACEHOLDER + " in its name");
+    }
+    List<KeyValueConfig> family = new ArrayList<>();
+    for (String value : valuesOf(template.getName(), template.getValues(), template.getRange())) {
+      KeyValueConfig keyValueConfig = new KeyValueConfig();
+      keyValueConfig.setName(substitute(spec.getName(), value));
+      keyValueConfig.setStorage(spec.getStorage());
+      keyValueConfig.setReplicas(spec.getReplicas());
+      keyValueConfig.setMaxHistoryPerKey(spec.getMaxHistoryPerKey());
+      keyValueConfig.setTimeToLiveInSeconds(spec.getTimeToLiveInSeconds());
+      keyValueConfig.setPriority(spec.getPriority());
+      family.add(keyValueConfig);
+    }
+    log.debug("KeyValue template {} expanded to {} buckets", template.getName(), family.size());
+    return List.copyOf(family);
+  }
+
+  private Set<String> valuesOf(String templateName, List<String> values, TemplateRange range) {
+    Set<String> expanded = new LinkedHashSet<>();
+    if (values != null) {
+      expanded.addAll(values);
+    }
+    if (range != null) {
+      if (range.getFrom() > range.getTo()) {
+        throw new IllegalArgumentException("Template " + templateName + " has an empty range " + range);
+      }
+      if ((long) range.getTo() - range.getFrom() + expanded.size() >= this.maxValues) {
+        throw new IllegalArgumentException("Template " + templateName + " has more than " + this.maxValues
+            + " values with its range " + range);
+      }
+      // a long so that a range up to Integer.MAX_VALUE ends
+      for (long i = range.getFrom(); i <= range.getTo(); i++) {
+        expanded.add(String.format(Locale.ROOT, range.getFormat(), (int) i));
+      }
+    }
+    if (expanded.isEmpty()) {
+      throw new IllegalArgumentException("Template " + templateName + " defines neither values nor range");
+    }
+    if (expanded.size() > this.maxValues) {
+      throw new IllegalArgumentException("Template " + templateName + " has more than " + this.maxValues + " values");
+    }
+    return expanded;
+  }
+
+  private static String substitute(String text, String value) {
+    return text == null ? null : text.replace(PLACEHOLDER, value);
+  }
+}
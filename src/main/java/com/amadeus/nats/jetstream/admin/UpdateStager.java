@@ -0,0 +1,230 @@
+package com.amadeus.nats.jetstream.admin;
+
+import com.amadeus.nats.jetstream.admin.comparators.ReconcilePlan;
+import com.amadeus.nats.jetstream.admin.comparators.SemanticDiff;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.api.ClusterInfo;
+import io.nats.client.api.Replica;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the stream updates which move data between servers (a replica or storage change of a large stream) in
+ * waves: a wave holds at most {@code apply.staging.max-bytes-in-flight} bytes to move. A run starts a single wave and
+ * returns at once, the next wave being started by a later run once every replica of the previous one is current, or
+ * once {@code apply.staging.catch-up-timeout} elapsed. The other updates are applied at once.
+ */
+@ApplicationScoped
+@Slf4j
+public class UpdateStager {
+
+  private static final Set<String> HEAVY_FIELDS = Set.of(SemanticDiff.REPLICAS, SemanticDiff.STORAGE);
+
+  private final NatsConnection nc;
+
+  private final long heavyBytes;
+
+  private final long maxBytesInFlight;
+
+  private final Duration catchUpTimeout;
+
+  /**
+   * Replicas expected for each stream of the wave in flight, empty when none is.
+   */
+  private final Map<String, Integer> inFlight = new LinkedHashMap<>();
+
+  private long inFlightSince;
+
+  /**
+   * Stager applying every update at once.
+   */
+  public UpdateStager(NatsConnection nc) {
+    this(nc, 0, 0, Duration.ZERO);
+  }
+
+  @Inject
+  public UpdateStager(NatsConnection nc,
+      @ConfigProperty(name = "apply.staging.heavy-bytes", defaultValue = "1073741824") long heavyBytes,
+      @ConfigProperty(name = "apply.staging.max-bytes-in-flight", defaultValue = "10737418240") long maxBytesInFlight,
+      @ConfigProperty(name = "apply.staging.catch-up-timeout", defaultValue = "10m") Duration catchUpTimeout) {
+    this.nc = nc;
+    this.heavyBytes = heavyBytes;
+    this.maxBytesInFlight = maxBytesInFlight;
+    this.catchUpTimeout = catchUpTimeout;
+  }
+
+  /**
+   * Stager with the same settings, applying the updates through another connection.
+   */
+  public UpdateStager withConnection(NatsConnection connection) {
+    return new UpdateStager(connection, this.heavyBytes, this.maxBytesInFlight, this.catchUpTimeout);
+  }
+
+  /**
+   * Applies the updates of the plan and returns the names of the streams which failed, are still catching up or wait
+   * for a wave, so that the next run checks them again.
+   */
+  public List<String> updateStreams(ReconcilePlan<StreamConfiguration> plan, List<StreamInfo> currentConfigs) {
+    return updateStreams(plan, currentConfigs, new HashSet<>());
+  }
+
+  /**
+   * Same as {@link #updateStreams(ReconcilePlan, List)}, also adding to {@code staged} the names of the returned
+   * streams which did not fail but are still catching up or wait for a wave: retrying them before the next run would
+   * start their updates while the previous wave is still moving data.
+   */
+  public synchronized List<String> updateStreams(ReconcilePlan<StreamConfiguration> plan,
+      List<StreamInfo> currentConfigs, Set<String> staged) {
+    if (this.heavyBytes <= 0 || plan.getToUpdate().isEmpty() && this.inFlight.isEmpty()) {
+      return this.nc.updateStreams(plan.getToUpdate());
+    }
+
+    Map<String, StreamInfo> currentByName = new HashMap<>();
+    currentConfigs.forEach(streamInfo -> currentByName.put(streamInfo.getConfiguration().getName(), streamInfo));
+
+    List<StreamConfiguration> light = new ArrayList<>();
+    List<StreamConfiguration> heavy = new ArrayList<>();
+    Map<String, Long> bytesToMove = new HashMap<>();
+    for (StreamConfiguration streamConf : plan.getToUpdate()) {
+      if (this.inFlight.containsKey(streamConf.getName())) {
+        // left alone until its wave caught up
+        continue;
+      }
+      long bytes = bytesToMove(streamConf, currentByName.get(streamConf.getName()),
+          plan.getDifferences().getOrDefault(streamConf.getName(), List.of()));
+      if (bytes >= this.heavyBytes) {
+        heavy.add(streamConf);
+        bytesToMove.put(streamConf.getName(), bytes);
+      } else {
+        light.add(streamConf);
+      }
+    }
+
+    List<String> failures = new ArrayList<>(this.nc.updateStreams(light));
+    if (isWaveDone() && !heavy.isEmpty()) {
+      List<StreamConfiguration> wave = waves(heavy, bytesToMove).get(0);
+      log.info("Starting a wave of heavy stream updates: {}, {} bytes to move, {} left for the next waves",
+          names(wave), wave.stream().mapToLong(streamConf -> bytesToMove.get(streamConf.getName())).sum(),
+          heavy.size() - wave.size());
+      List<String> waveFailures = this.nc.updateStreams(wave);
+      failures.addAll(waveFailures);
+      heavy.removeAll(wave);
+      wave.stream()
+          .filter(streamConf -> !waveFailures.contains(streamConf.getName()))
+          .forEach(streamConf -> this.inFlight.put(streamConf.getName(), streamConf.getReplicas()));
+      this.inFlightSince = System.nanoTime();
+    }
+    // waiting for a wave or still catching up: reported with the failures so that the run is not seen as in sync
+    List<String> deferred = names(heavy);
+    failures.addAll(deferred);
+    failures.addAll(this.inFlight.keySet());
+    staged.addAll(deferred);
+    staged.addAll(this.inFlight.keySet());
+    return failures;
+  }
+
+  /**
+   * Bytes copied between servers by the update, 0 when it does not move data: the stored bytes for each added replica,
+   * or for each replica when the storage changes. Removing replicas copies nothing.
+   */
+  private static long bytesToMove(StreamConfiguration streamConf, StreamInfo current, List<String> differences) {
+    if (current == null || current.getStreamState() == null || differences.stream().noneMatch(HEAVY_FIELDS::contains)) {
+      return 0;
+    }
+    long bytes = current.getStreamState().getByteCount();
+    if (differences.contains(SemanticDiff.STORAGE)) {
+      return bytes * Math.max(1, streamConf.getReplicas());
+    }
+    int addedReplicas = streamConf.getReplicas() - current.getConfiguration().getReplicas();
+    return addedReplicas > 0 ? bytes * addedReplicas : 0;
+  }
+
+  /**
+   * Packs the updates in list order, a single update larger than the budget making a wave on its own.
+   */
+  private List<List<StreamConfiguration>> waves(List<StreamConfiguration> heavy, Map<String, Long> bytesToMove) {
+    List<List<StreamConfiguration>> waves = new ArrayList<>();
+    List<StreamConfiguration> wave = new ArrayList<>();
+    long waveBytes = 0;
+    for (StreamConfiguration streamConf : heavy) {
+      long bytes = bytesToMove.get(streamConf.getName());
+      if (!wave.isEmpty() && waveBytes + bytes > this.maxBytesInFlight) {
+        waves.add(wave);
+        wave = new ArrayList<>();
+        waveBytes = 0;
+      }
+      wave.add(streamConf);
+      waveBytes += bytes;
+    }
+    if (!wave.isEmpty()) {
+      waves.add(wave);
+    }
+    return waves;
+  }
+
+  /**
+   * Checks whether the replicas of the wave in flight are current, true when there is none. A wave which does not catch
+   * up within the timeout is given up on, so that a stuck replica does not hold back the next waves for good.
+   */
+  private boolean isWaveDone() {
+    if (this.inFlight.isEmpty()) {
+      return true;
+    }
+    try {
+      Set<String> lagging = new HashSet<>();
+      for (StreamInfo streamInfo : this.nc.getStreamsConfig(new ArrayList<>(this.inFlight.keySet()))) {
+        String name = streamInfo.getConfiguration().getName();
+        if (!isCaughtUp(streamInfo, this.inFlight.get(name))) {
+          lagging.add(name);
+        }
+      }
+      // the streams no longer listed were deleted meanwhile
+      this.inFlight.keySet().retainAll(lagging);
+    } catch (IOException | JetStreamApiException e) {
+      log.error("Error when using jetstream api", e);
+      return false;
+    }
+    if (this.inFlight.isEmpty()) {
+      return true;
+    }
+    if (System.nanoTime() - this.inFlightSince - this.catchUpTimeout.toNanos() >= 0) {
+      log.warn("Replicas of {} not current after {}, starting the next wave", this.inFlight.keySet(),
+          this.catchUpTimeout);
+      this.inFlight.clear();
+      return true;
+    }
+    log.debug("Waiting for the replicas of {} to catch up", this.inFlight.keySet());
+    return false;
+  }
+
+  /**
+   * Without cluster info (a single server) there is nothing to catch up.
+   */
+  static boolean isCaughtUp(StreamInfo streamInfo, int replicas) {
+    ClusterInfo clusterInfo = streamInfo.getClusterInfo();
+    if (clusterInfo == null) {
+      return true;
+    }
+    List<Replica> followers = clusterInfo.getReplicas() == null ? List.of() : clusterInfo.getReplicas();
+    return followers.size() >= replicas - 1 && followers.stream().allMatch(Replica::isCurrent);
+  }
+
+  private static List<String> names(List<StreamConfiguration> streamConfs) {
+    return streamConfs.stream().map(StreamConfiguration::getName).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,76 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.StreamConfiguration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 64-bit fingerprints (FNV-1a) of the normalized fields of a desired entity: two specs with the same fingerprint lead
+ * to the same server configuration. Server configurations have fingerprints too, over the fields managed by the
+ * controller, to detect that the server did not change.
+ */
+public final class EntityFingerprint {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private static final char SEPARATOR = '\u001f';
+
+  private EntityFingerprint() {
+    // no instantiation
+  }
+
+  public static long of(StreamConfig streamConfig) {
+    List<String> subjects = streamConfig.getSubjects() == null ? new ArrayList<>()
+        : new ArrayList<>(streamConfig.getSubjects());
+    Collections.sort(subjects);
+    return hash(lower(streamConfig.getStreamName()), String.join(",", subjects), lower(streamConfig.getStorage()),
+        String.valueOf(streamConfig.getReplicas()), lower(streamConfig.getRetention()),
+        String.valueOf(streamConfig.getMaxAge()));
+  }
+
+  public static long of(KeyValueConfig keyValueConfig) {
+    return hash(lower(keyValueConfig.getName()), lower(keyValueConfig.getStorage()),
+        String.valueOf(keyValueConfig.getReplicas()), String.valueOf(keyValueConfig.getMaxHistoryPerKey()),
+        String.valueOf(keyValueConfig.getTimeToLiveInSeconds()));
+  }
+
+  public static long of(StreamConfiguration streamConfiguration) {
+    List<String> subjects = new ArrayList<>(streamConfiguration.getSubjects());
+    Collections.sort(subjects);
+    return hash(lower(streamConfiguration.getName()), String.join(",", subjects),
+        String.valueOf(streamConfiguration.getStorageType()), String.valueOf(streamConfiguration.getReplicas()),
+        String.valueOf(streamConfiguration.getRetentionPolicy()), String.valueOf(streamConfiguration.getMaxAge()));
+  }
+
+  public static long of(KeyValueConfiguration keyValueConfiguration) {
+    return hash(lower(keyValueConfiguration.getBucketName()), String.valueOf(keyValueConfiguration.getStorageType()),
+        String.valueOf(keyValueConfiguration.getReplicas()), String.valueOf(keyValueConfiguration.getMaxHistoryPerKey()),
+        String.valueOf(keyValueConfiguration.getTtl()));
+  }
+
+  static long hash(String... fields) {
+    long hash = FNV_OFFSET_BASIS;
+    for (String field : fields) {
+      for (byte b : field.getBytes(StandardCharsets.UTF_8)) {
+        hash ^= b & 0xFF;
+        hash *= FNV_PRIME;
+      }
+      hash ^= SEPARATOR;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+  private static String lower(String value) {
+    return value == null ? "" : value.toLowerCase(Locale.ROOT);
+  }
+}
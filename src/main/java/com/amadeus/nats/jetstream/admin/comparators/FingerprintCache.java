@@ -0,0 +1,49 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers, per entity, the fingerprints of the desired spec and of the server configuration last found in sync.
+ * While both are unchanged the entity is known to be in sync, without building nor comparing configurations. Not
+ * thread safe, owned by a single reconcile loop.
+ */
+public final class FingerprintCache {
+
+  private final Map<String, long[]> entries = new HashMap<>();
+
+  boolean isInSync(String key, long desired, long server) {
+    long[] entry = this.entries.get(key);
+    return entry != null && entry[0] == desired && entry[1] == server;
+  }
+
+  void markInSync(String key, long desired, long server) {
+    long[] entry = this.entries.get(key);
+    if (entry == null) {
+      this.entries.put(key, new long[] {desired, server});
+    } else {
+      entry[0] = desired;
+      entry[1] = server;
+    }
+  }
+
+  void evict(String key) {
+    this.entries.remove(key);
+  }
+
+  /**
+   * Evicts the entities which are no longer desired.
+   */
+  void retainAll(Set<String> keys) {
+    this.entries.keySet().retainAll(keys);
+  }
+
+  public void clear() {
+    this.entries.clear();
+  }
+
+  public int size() {
+    return this.entries.size();
+  }
+}
@@ -0,0 +1,55 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable diff of a names only inventory of the server with the desired names, before any configuration is looked
+ * up.
+ */
+public final class InventoryDiff {
+
+  private final Map<String, String> found;
+
+  private final Set<String> missing;
+
+  private final List<String> unknown;
+
+  public InventoryDiff(Map<String, String> found, Set<String> missing, List<String> unknown) {
+    this.found = found;
+    this.missing = missing;
+    this.unknown = unknown;
+  }
+
+  /**
+   * Desired names by name on the server, for the entities which exist: their configuration must be looked up to be
+   * compared.
+   */
+  public Map<String, String> getFound() {
+    return this.found;
+  }
+
+  /**
+   * Desired names which do not exist on the server, to create.
+   */
+  public Set<String> getMissing() {
+    return this.missing;
+  }
+
+  /**
+   * Names on the server which are not desired, to delete.
+   */
+  public List<String> getUnknown() {
+    return this.unknown;
+  }
+
+  @Override
+  public String toString() {
+    return "InventoryDiff{" +
+        "found=" + found.size() +
+        ", missing=" + missing.size() +
+        ", unknown=" + unknown.size() +
+        '}';
+  }
+}
@@ -0,0 +1,61 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable result of a diff between the server and the desired state: the configurations to create, update and
+ * delete.
+ *
+ * @param <T> server configuration type, {@link io.nats.client.api.StreamConfiguration} or
+ *     {@link io.nats.client.api.KeyValueConfiguration}
+ */
+public final class ReconcilePlan<T> {
+
+  private final List<T> toCreate;
+
+  private final List<T> toUpdate;
+
+  private final List<T> toDelete;
+
+  private final Map<String, List<String>> differences;
+
+  public ReconcilePlan(List<T> toCreate, List<T> toUpdate, List<T> toDelete, Map<String, List<String>> differences) {
+    this.toCreate = List.copyOf(toCreate);
+    this.toUpdate = List.copyOf(toUpdate);
+    this.toDelete = List.copyOf(toDelete);
+    this.differences = Map.copyOf(differences);
+  }
+
+  public List<T> getToCreate() {
+    return this.toCreate;
+  }
+
+  public List<T> getToUpdate() {
+    return this.toUpdate;
+  }
+
+  public List<T> getToDelete() {
+    return this.toDelete;
+  }
+
+  /**
+   * Names of the fields which differ from the server, by name of entity to update.
+   */
+  public Map<String, List<String>> getDifferences() {
+    return this.differences;
+  }
+
+  public boolean isEmpty() {
+    return this.toCreate.isEmpty() && this.toUpdate.isEmpty() && this.toDelete.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "ReconcilePlan{" +
+        "toCreate=" + toCreate.size() +
+        ", toUpdate=" + toUpdate.size() +
+        ", toDelete=" + toDelete.size() +
+        '}';
+  }
+}
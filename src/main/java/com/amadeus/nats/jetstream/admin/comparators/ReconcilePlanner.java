@@ -0,0 +1,221 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Diffs the server and the desired state in a single pass: both sides are indexed once by name, so that the cost is
+ * linear in the number of entities, and each desired configuration is built once. Existing entities are compared with
+ * {@link SemanticDiff}, unless a {@link FingerprintCache} knows them in sync.
+ * <p>
+ * Names are matched ignoring case, as the comparators always did, although JetStream names are case-sensitive: two
+ * entities whose names only differ by case are seen as the same one. A plan holds the creations, updates and deletions
+ * at once, compute it once per run and pass it along rather than diffing again for each of them.
+ */
+public final class ReconcilePlanner {
+
+  private ReconcilePlanner() {
+    // no instantiation
+  }
+
+  /**
+   * @param deleteUnknown whether the streams of the server which are not desired must be deleted, false when only a
+   *     subset of the desired state is given
+   */
+  public static ReconcilePlan<StreamConfiguration> planStreams(List<StreamInfo> currentConfigs,
+      List<StreamConfig> streamConfigs, boolean deleteUnknown) {
+    return planStreams(currentConfigs, streamConfigs, deleteUnknown, null);
+  }
+
+  /**
+   * @param cache fingerprints of the entities known in sync, updated by the diff, or null
+   */
+  public static ReconcilePlan<StreamConfiguration> planStreams(List<StreamInfo> currentConfigs,
+      List<StreamConfig> streamConfigs, boolean deleteUnknown, FingerprintCache cache) {
+    Map<String, StreamConfiguration> current = new HashMap<>(capacity(currentConfigs.size()));
+    for (StreamInfo streamInfo : currentConfigs) {
+      current.putIfAbsent(key(streamInfo.getConfiguration().getName()), streamInfo.getConfiguration());
+    }
+
+    List<StreamConfiguration> toCreate = new ArrayList<>();
+    List<StreamConfiguration> toUpdate = new ArrayList<>();
+    Map<String, List<String>> differences = new HashMap<>();
+    Set<String> desired = new HashSet<>(capacity(streamConfigs.size()));
+    for (StreamConfig streamConfig : streamConfigs) {
+      String key = key(streamConfig.getStreamName());
+      if (!desired.add(key)) {
+        continue;
+      }
+      StreamConfiguration fromServer = current.get(key);
+      long desiredFingerprint = 0;
+      long serverFingerprint = 0;
+      if (cache != null && fromServer != null) {
+        desiredFingerprint = EntityFingerprint.of(streamConfig);
+        serverFingerprint = EntityFingerprint.of(fromServer);
+        if (cache.isInSync(key, desiredFingerprint, serverFingerprint)) {
+          continue;
+        }
+      }
+      StreamConfiguration fromConfig = StreamConfigComparator.toStreamConfig(streamConfig);
+      if (fromServer == null) {
+        toCreate.add(fromConfig);
+      } else {
+        List<String> fields = SemanticDiff.ofStreams(fromServer, fromConfig);
+        if (!fields.isEmpty()) {
+          toUpdate.add(fromConfig);
+          differences.put(fromConfig.getName(), fields);
+          if (cache != null) {
+            cache.evict(key);
+          }
+        } else if (cache != null) {
+          cache.markInSync(key, desiredFingerprint, serverFingerprint);
+        }
+      }
+    }
+
+    List<StreamConfiguration> toDelete = new ArrayList<>();
+    if (deleteUnknown) {
+      for (StreamInfo streamInfo : currentConfigs) {
+        if (!desired.contains(key(streamInfo.getConfiguration().getName()))) {
+          toDelete.add(streamInfo.getConfiguration());
+        }
+      }
+      if (cache != null) {
+        cache.retainAll(desired);
+      }
+    }
+    return new ReconcilePlan<>(toCreate, toUpdate, toDelete, differences);
+  }
+
+  /**
+   * @param keyValueConfigs desired buckets, none when null as a config may leave them out
+   * @param deleteUnknown whether the buckets of the server which are not desired must be deleted, false when only a
+   *     subset of the desired state is given
+   */
+  public static ReconcilePlan<KeyValueConfiguration> planKeyValues(List<KeyValueConfiguration> currentConfigs,
+      List<KeyValueConfig> keyValueConfigs, boolean deleteUnknown) {
+    return planKeyValues(currentConfigs, keyValueConfigs, deleteUnknown, null);
+  }
+
+  /**
+   * @param cache fingerprints of the entities known in sync, updated by the diff, or null
+   */
+  public static ReconcilePlan<KeyValueConfiguration> planKeyValues(List<KeyValueConfiguration> currentConfigs,
+      List<KeyValueConfig> keyValueConfigs, boolean deleteUnknown, FingerprintCache cache) {
+    if (keyValueConfigs == null) {
+      keyValueConfigs = List.of();
+    }
+    Map<String, KeyValueConfiguration> current = new HashMap<>(capacity(currentConfigs.size()));
+    for (KeyValueConfiguration keyValueConfiguration : currentConfigs) {
+      current.putIfAbsent(key(keyValueConfiguration.getBucketName()), keyValueConfiguration);
+    }
+
+    List<KeyValueConfiguration> toCreate = new ArrayList<>();
+    List<KeyValueConfiguration> toUpdate = new ArrayList<>();
+    Map<String, List<String>> differences = new HashMap<>();
+    Set<String> desired = new HashSet<>(capacity(keyValueConfigs.size()));
+    for (KeyValueConfig keyValueConfig : keyValueConfigs) {
+      String key = key(keyValueConfig.getName());
+      if (!desired.add(key)) {
+        continue;
+      }
+      KeyValueConfiguration fromServer = current.get(key);
+      long desiredFingerprint = 0;
+      long serverFingerprint = 0;
+      if (cache != null && fromServer != null) {
+        desiredFingerprint = EntityFingerprint.of(keyValueConfig);
+        serverFingerprint = EntityFingerprint.of(fromServer);
+        if (cache.isInSync(key, desiredFingerprint, serverFingerprint)) {
+          continue;
+        }
+      }
+      KeyValueConfiguration fromConfig = KeyValueConfigComparator.toKeyValueConfig(keyValueConfig);
+      if (fromServer == null) {
+        toCreate.add(fromConfig);
+      } else {
+        List<String> fields = SemanticDiff.ofKeyValues(fromServer, fromConfig);
+        if (!fields.isEmpty()) {
+          toUpdate.add(fromConfig);
+          differences.put(fromConfig.getBucketName(), fields);
+          if (cache != null) {
+            cache.evict(key);
+          }
+        } else if (cache != null) {
+          cache.markInSync(key, desiredFingerprint, serverFingerprint);
+        }
+      }
+    }
+
+    List<KeyValueConfiguration> toDelete = new ArrayList<>();
+    if (deleteUnknown) {
+      for (KeyValueConfiguration keyValueConfiguration : currentConfigs) {
+        if (!desired.contains(key(keyValueConfiguration.getBucketName()))) {
+          toDelete.add(keyValueConfiguration);
+        }
+      }
+      if (cache != null) {
+        cache.retainAll(desired);
+      }
+    }
+    return new ReconcilePlan<>(toCreate, toUpdate, toDelete, differences);
+  }
+
+  /**
+   * Diff of the names of the server with the desired ones, matched ignoring case as the configurations are. The
+   * entities no longer desired are evicted from the cache.
+   */
+  public static InventoryDiff diffNames(Collection<String> serverNames, Collection<String> desiredNames,
+      FingerprintCache cache) {
+    Map<String, String> desired = new LinkedHashMap<>(capacity(desiredNames.size()));
+    for (String desiredName : desiredNames) {
+      desired.putIfAbsent(key(desiredName), desiredName);
+    }
+
+    Map<String, String> found = new LinkedHashMap<>(capacity(desired.size()));
+    Set<String> foundKeys = new HashSet<>(capacity(desired.size()));
+    List<String> unknown = new ArrayList<>();
+    for (String serverName : serverNames) {
+      String key = key(serverName);
+      String desiredName = desired.get(key);
+      if (desiredName == null) {
+        unknown.add(serverName);
+      } else if (foundKeys.add(key)) {
+        found.put(serverName, desiredName);
+      }
+    }
+    Set<String> missing = new LinkedHashSet<>();
+    desired.forEach((key, desiredName) -> {
+      if (!foundKeys.contains(key)) {
+        missing.add(desiredName);
+      }
+    });
+    if (cache != null) {
+      cache.retainAll(desired.keySet());
+    }
+    return new InventoryDiff(Collections.unmodifiableMap(found), Collections.unmodifiableSet(missing),
+        Collections.unmodifiableList(unknown));
+  }
+
+  private static String key(String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+
+  private static int capacity(int size) {
+    return Math.max(16, (int) (size / 0.75f) + 1);
+  }
+}
@@ -0,0 +1,116 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.RetentionPolicy;
+import io.nats.client.api.StorageType;
+import io.nats.client.api.StreamConfiguration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Field by field comparison of a server configuration with the desired one. Both sides are normalized first: unset
+ * values are replaced by the server defaults, durations are compared by value and subjects as a set, so that only a
+ * real change leads to an update.
+ */
+public final class SemanticDiff {
+
+  public static final String SUBJECTS = "subjects";
+
+  public static final String REPLICAS = "replicas";
+
+  public static final String STORAGE = "storage";
+
+  public static final String RETENTION = "retention";
+
+  public static final String MAX_AGE = "maxAge";
+
+  public static final String TTL = "timeToLiveInSeconds";
+
+  public static final String MAX_HISTORY_PER_KEY = "maxHistoryPerKey";
+
+  private SemanticDiff() {
+    // no instantiation
+  }
+
+  /**
+   * Returns the names of the fields which differ, empty when the server configuration is the desired one.
+   */
+  public static List<String> ofStreams(StreamConfiguration fromServer, StreamConfiguration fromConfig) {
+    List<String> differences = new ArrayList<>();
+    if (!subjects(fromServer).equals(subjects(fromConfig))) {
+      differences.add(SUBJECTS);
+    }
+    if (replicas(fromServer.getReplicas()) != replicas(fromConfig.getReplicas())) {
+      differences.add(REPLICAS);
+    }
+    if (storage(fromServer.getStorageType()) != storage(fromConfig.getStorageType())) {
+      differences.add(STORAGE);
+    }
+    if (retention(fromServer.getRetentionPolicy()) != retention(fromConfig.getRetentionPolicy())) {
+      differences.add(RETENTION);
+    }
+    if (!duration(fromServer.getMaxAge()).equals(duration(fromConfig.getMaxAge()))) {
+      differences.add(MAX_AGE);
+    }
+    return differences;
+  }
+
+  /**
+   * Returns the names of the fields which differ, empty when the server configuration is the desired one.
+   */
+  public static List<String> ofKeyValues(KeyValueConfiguration fromServer, KeyValueConfiguration fromConfig) {
+    List<String> differences = new ArrayList<>();
+    if (replicas(fromServer.getReplicas()) != replicas(fromConfig.getReplicas())) {
+      differences.add(REPLICAS);
+    }
+    if (storage(fromServer.getStorageType()) != storage(fromConfig.getStorageType())) {
+      differences.add(STORAGE);
+    }
+    if (!duration(fromServer.getTtl()).equals(duration(fromConfig.getTtl()))) {
+      differences.add(TTL);
+    }
+    if (maxHistory(fromServer.getMaxHistoryPerKey()) != maxHistory(fromConfig.getMaxHistoryPerKey())) {
+      differences.add(MAX_HISTORY_PER_KEY);
+    }
+    return differences;
+  }
+
+  /**
+   * The server binds a stream created without subject to its name.
+   */
+  private static Set<String> subjects(StreamConfiguration configuration) {
+    List<String> subjects = configuration.getSubjects();
+    if (subjects == null || subjects.isEmpty()) {
+      return configuration.getName() == null ? Set.of() : Set.of(configuration.getName());
+    }
+    return new HashSet<>(subjects);
+  }
+
+  private static int replicas(int replicas) {
+    return Math.max(1, replicas);
+  }
+
+  private static int maxHistory(long maxHistoryPerKey) {
+    return (int) Math.max(1, maxHistoryPerKey);
+  }
+
+  private static StorageType storage(StorageType storageType) {
+    return Objects.requireNonNullElse(storageType, StorageType.File);
+  }
+
+  private static RetentionPolicy retention(RetentionPolicy retentionPolicy) {
+    return Objects.requireNonNullElse(retentionPolicy, RetentionPolicy.Limits);
+  }
+
+  /**
+   * Zero, negative and unset durations all mean unlimited.
+   */
+  private static Duration duration(Duration duration) {
+    return duration == null || duration.isNegative() ? Duration.ZERO : duration;
+  }
+}
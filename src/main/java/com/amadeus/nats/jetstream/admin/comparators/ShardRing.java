@@ -0,0 +1,86 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing of the stream and bucket names over the live controller replicas. Each member is placed at
+ * several points of a ring, and an entity belongs to the member of the first point following the hash of its kind and
+ * name: a member joining or leaving only moves the entities of its own points, about one share each.
+ */
+public final class ShardRing {
+
+  public static final ShardRing EMPTY = new ShardRing(List.of(), 1);
+
+  private final List<String> members;
+
+  private final long[] points;
+
+  private final String[] owners;
+
+  public ShardRing(Collection<String> members, int virtualNodes) {
+    this.members = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(members)));
+    int size = this.members.size() * virtualNodes;
+    long[][] placed = new long[size][];
+    int index = 0;
+    for (int member = 0; member < this.members.size(); member++) {
+      for (int node = 0; node < virtualNodes; node++) {
+        placed[index++] = new long[] {mix(EntityFingerprint.hash(this.members.get(member), String.valueOf(node))),
+            member};
+      }
+    }
+    // ties broken by member, so that every replica builds the same ring
+    Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+    this.points = new long[size];
+    this.owners = new String[size];
+    for (int i = 0; i < size; i++) {
+      this.points[i] = placed[i][0];
+      this.owners[i] = this.members.get((int) placed[i][1]);
+    }
+  }
+
+  /**
+   * Member owning the given entity, null when the ring is empty. Names are matched case-insensitively, as by the
+   * planner.
+   */
+  public String ownerOf(String kind, String name) {
+    if (this.points.length == 0) {
+      return null;
+    }
+    long hash = mix(EntityFingerprint.hash(kind, name.toLowerCase(Locale.ROOT)));
+    int index = Arrays.binarySearch(this.points, hash);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    return this.owners[index == this.points.length ? 0 : index];
+  }
+
+  /**
+   * Members, sorted.
+   */
+  public List<String> getMembers() {
+    return this.members;
+  }
+
+  public boolean isEmpty() {
+    return this.members.isEmpty();
+  }
+
+  /**
+   * Final mix of MurmurHash3: FNV-1a alone clusters the hashes of names differing by their last characters only.
+   */
+  private static long mix(long hash) {
+    long mixed = hash;
+    mixed ^= mixed >>> 33;
+    mixed *= 0xff51afd7ed558ccdL;
+    mixed ^= mixed >>> 33;
+    mixed *= 0xc4ceb9fe1a85ec53L;
+    mixed ^= mixed >>> 33;
+    return mixed;
+  }
+}
@@ -7,54 +7,46 @@ import io.nats.client.api.StreamConfiguration;
 import io.nats.client.api.StreamInfo;
 
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Single-purpose views of the {@link ReconcilePlanner} diff, each computing a whole plan: use
+ * {@link ReconcilePlanner#planStreams} to get creations, updates and deletions at once.
+ */
 public final class StreamConfigComparator {
 
   private StreamConfigComparator() {
     // no instantiation
   }
 
+  /**
+   * @deprecated diffs the whole state for a single list, use {@link ReconcilePlanner#planStreams} once per run
+   */
+  @Deprecated
   public static List<StreamConfiguration> getStreamsToDelete(List<StreamInfo> currentConfig,
       List<StreamConfig> streamConfigs) {
-    List<StreamConfiguration> streamsToDelete = new ArrayList<>();
-
-    for (StreamInfo streamInfo : currentConfig) {
-      if (!isStreamPresentInNewConfig(streamConfigs, streamInfo.getConfiguration().getName())) {
-        streamsToDelete.add(streamInfo.getConfiguration());
-      }
-    }
-
-    return streamsToDelete;
+    return ReconcilePlanner.planStreams(currentConfig, streamConfigs, true).getToDelete();
   }
 
+  /**
+   * @deprecated diffs the whole state for a single list, use {@link ReconcilePlanner#planStreams} once per run
+   */
+  @Deprecated
   public static List<StreamConfiguration> getStreamsToCreate(List<StreamInfo> currentConfig,
       List<StreamConfig> streamConfigs) {
-    List<StreamConfiguration> streamsToCreate = new ArrayList<>();
-
-    for (StreamConfig streamConfig : streamConfigs) {
-      if (!isStreamPresentInCurrentConfig(currentConfig, streamConfig.getStreamName())) {
-        streamsToCreate.add(toStreamConfig(streamConfig));
-      }
-    }
-    return streamsToCreate;
+    return ReconcilePlanner.planStreams(currentConfig, streamConfigs, false).getToCreate();
   }
 
+  /**
+   * @deprecated diffs the whole state for a single list, use {@link ReconcilePlanner#planStreams} once per run
+   */
+  @Deprecated
   public static List<StreamConfiguration> compareStreamsWithConfig(List<StreamInfo> currentConfig,
       List<StreamConfig> streamConfigs) {
-    List<StreamConfiguration> streamsToUpdate = new ArrayList<>();
-
-    for (StreamConfig streamConfig : streamConfigs) {
-      if (shouldbeUpdated(streamConfig, currentConfig)) {
-        streamsToUpdate.add(toStreamConfig(streamConfig));
-      }
-    }
-
-    return streamsToUpdate;
+    return ReconcilePlanner.planStreams(currentConfig, streamConfigs, false).getToUpdate();
   }
 
-  private static StreamConfiguration toStreamConfig(StreamConfig streamConfig) {
+  static StreamConfiguration toStreamConfig(StreamConfig streamConfig) {
     return StreamConfiguration.builder()
         .name(streamConfig.getStreamName())
         .addSubjects(streamConfig.getSubjects())
@@ -65,47 +57,4 @@ public final class StreamConfigComparator {
         .build();
   }
 
-  private static boolean shouldbeUpdated(StreamConfig stream, List<StreamInfo> currentConfig) {
-    StreamInfo streamInfo = getStreamWithName(stream.getStreamName(), currentConfig);
-
-    boolean shouldBeUpdated = false;
-
-    if (streamInfo != null && !isEqual(streamInfo, stream)) {
-      shouldBeUpdated = true;
-    }
-
-    return shouldBeUpdated;
-  }
-
-  private static boolean isEqual(StreamInfo streamInfo, StreamConfig stream) {
-    StreamConfiguration streamConfigFromConfig = toStreamConfig(stream);
-    StreamConfiguration streamConfigFromServer = streamInfo.getConfiguration();
-    return streamConfigFromServer.getMaxAge().equals(streamConfigFromConfig.getMaxAge())
-        && streamConfigFromServer.getSubjects().equals(streamConfigFromConfig.getSubjects())
-        && streamConfigFromServer.getReplicas() == streamConfigFromConfig.getReplicas()
-        && streamConfigFromServer.getStorageType().equals(streamConfigFromConfig.getStorageType())
-        && streamConfigFromServer.getRetentionPolicy().equals(streamConfigFromConfig.getRetentionPolicy());
-  }
-
-  private static StreamInfo getStreamWithName(String streamName, List<StreamInfo> existingStreams) {
-    return existingStreams.stream()
-        .filter(stream -> streamName.equalsIgnoreCase(stream.getConfiguration().getName()))
-        .findFirst()
-        .orElse(null);
-  }
-
-  private static boolean isStreamPresentInNewConfig(List<StreamConfig> streamConfigs, String streamName) {
-    return streamConfigs.stream()
-        .filter(currentStream -> streamName.equalsIgnoreCase(currentStream.getStreamName()))
-        .findFirst()
-        .isPresent();
-  }
-
-  private static boolean isStreamPresentInCurrentConfig(List<StreamInfo> currentConfig, String streamName) {
-    return currentConfig.stream()
-        .filter(currentStream -> streamName.equalsIgnoreCase(currentStream.getConfiguration().getName()))
-        .findFirst()
-        .isPresent();
-  }
-
 }
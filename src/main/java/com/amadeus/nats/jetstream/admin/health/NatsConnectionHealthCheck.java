@@ -31,7 +31,8 @@ public class NatsConnectionHealthCheck implements HealthCheck {
         .name(NATS_CONNECTION_CHECK_NAME);
 
     if (natsConnection.getConnection() == null) {
-      return response.down().withData(NATS_CONNECTION_STATUS, "null").build();
+      // still connecting in the background, restarting would not help
+      return response.up().withData(NATS_CONNECTION_STATUS, Connection.Status.CONNECTING.toString()).build();
     } else if (Connection.Status.CONNECTED == natsConnection.getConnection().getStatus()) {
       response.up();
     } else {
@@ -14,11 +14,17 @@ public class JetstreamConfigs {
 
   private List<KeyValueConfig> keyValueConfigs = new ArrayList<>();
 
+  private List<StreamTemplate> streamTemplates = new ArrayList<>();
+
+  private List<KeyValueTemplate> keyValueTemplates = new ArrayList<>();
+
   @Override
   public String toString() {
     return "JetstreamConfigs{" +
         "streamConfigs=" + streamConfigs +
         ", keyValueConfigs=" + keyValueConfigs +
+        ", streamTemplates=" + streamTemplates +
+        ", keyValueTemplates=" + keyValueTemplates +
         '}';
   }
 }
@@ -1,10 +1,12 @@
 package com.amadeus.nats.jetstream.admin.model;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
 @Getter
 @Setter
+@EqualsAndHashCode
 public class KeyValueConfig {
 
   private String name;
@@ -17,6 +19,8 @@ public class KeyValueConfig {
 
   private int timeToLiveInSeconds;
 
+  private String priority;
+
   @Override
   public String toString() {
     return "KeyValueConfig{" +
@@ -25,6 +29,7 @@ public class KeyValueConfig {
         ", replicas=" + replicas +
         ", maxHistoryPerKey=" + maxHistoryPerKey +
         ", timeToLiveInSeconds=" + timeToLiveInSeconds +
+        ", priority='" + priority + '\'' +
         '}';
   }
 }
@@ -0,0 +1,36 @@
+package com.amadeus.nats.jetstream.admin.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A family of key value buckets sharing the same spec: one bucket is generated for each value, the value replacing
+ * the placeholder in the spec.
+ */
+@Getter
+@Setter
+@EqualsAndHashCode
+public class KeyValueTemplate {
+
+  private String name;
+
+  private List<String> values = new ArrayList<>();
+
+  private TemplateRange range;
+
+  private KeyValueConfig spec;
+
+  @Override
+  public String toString() {
+    return "KeyValueTemplate{" +
+        "name='" + name + '\'' +
+        ", values=" + values +
+        ", range=" + range +
+        ", spec=" + spec +
+        '}';
+  }
+}
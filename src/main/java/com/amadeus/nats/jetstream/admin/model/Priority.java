@@ -0,0 +1,25 @@
+package com.amadeus.nats.jetstream.admin.model;
+
+import java.util.Locale;
+
+/**
+ * Reconcile priority of a stream or key value bucket: the entities of a higher priority are applied first.
+ */
+public enum Priority {
+
+  CRITICAL, HIGH, NORMAL, LOW;
+
+  /**
+   * Parses the priority of a config, {@link #NORMAL} when unset or unknown.
+   */
+  public static Priority of(String value) {
+    if (value == null) {
+      return NORMAL;
+    }
+    try {
+      return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      return NORMAL;
+    }
+  }
+}
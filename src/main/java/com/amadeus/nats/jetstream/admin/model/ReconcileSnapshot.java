@@ -0,0 +1,27 @@
+package com.amadeus.nats.jetstream.admin.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class ReconcileSnapshot {
+
+  private long savedAt;
+
+  private Map<String, Long> streams = new HashMap<>();
+
+  private Map<String, Long> keyValues = new HashMap<>();
+
+  @Override
+  public String toString() {
+    return "ReconcileSnapshot{" +
+        "savedAt=" + savedAt +
+        ", streams=" + streams.size() +
+        ", keyValues=" + keyValues.size() +
+        '}';
+  }
+}
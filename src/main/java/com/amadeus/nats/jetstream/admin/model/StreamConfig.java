@@ -2,11 +2,13 @@ package com.amadeus.nats.jetstream.admin.model;
 
 import java.util.List;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
 @Getter
 @Setter
+@EqualsAndHashCode
 public class StreamConfig {
 
   private String streamName;
@@ -21,10 +23,12 @@ public class StreamConfig {
 
   private long maxAge;
 
+  private String priority;
+
   @Override
   public String toString() {
     return "StreamConfig [streamName=" + streamName + ", subjects=" + subjects + ", storage=" + storage + ", replicas="
-        + replicas + ", retention=" + retention + ", maxAge=" + maxAge + "]";
+        + replicas + ", retention=" + retention + ", maxAge=" + maxAge + ", priority=" + priority + "]";
   }
 
 }
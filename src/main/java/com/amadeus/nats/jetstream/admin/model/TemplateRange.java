@@ -0,0 +1,26 @@
+package com.amadeus.nats.jetstream.admin.model;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@EqualsAndHashCode
+public class TemplateRange {
+
+  private int from;
+
+  private int to;
+
+  private String format = "%d";
+
+  @Override
+  public String toString() {
+    return "TemplateRange{" +
+        "from=" + from +
+        ", to=" + to +
+        ", format='" + format + '\'' +
+        '}';
+  }
+}
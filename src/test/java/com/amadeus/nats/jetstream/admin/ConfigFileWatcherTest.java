@@ -0,0 +1,70 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConfigFileWatcherTest {
+
+  private static final String FILE_NAME = "jetstream-configs.txt";
+
+  @TempDir
+  Path mountPath;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  private ConfigFileWatcher watcher;
+
+  @BeforeEach
+  public void setUp() {
+    this.scheduler = mock(JetstreamUpdatesScheduler.class);
+    this.watcher = new ConfigFileWatcher(this.scheduler, this.mountPath.toString(), FILE_NAME,
+        JetstreamConfigSources.FILE, false, true, Duration.ofMillis(100));
+    this.watcher.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.watcher.stop();
+  }
+
+  @Test
+  void testReconcileTriggeredOnceForABurstOfWrites() throws IOException {
+    Path file = this.mountPath.resolve(FILE_NAME);
+    for (int i = 0; i < 5; i++) {
+      Files.write(file, ("content" + i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    verify(this.scheduler, timeout(5000)).updateStreams();
+    verify(this.scheduler, after(500).times(1)).updateStreams();
+  }
+
+  @Test
+  void testUnrelatedFileIgnored() throws IOException {
+    Files.write(this.mountPath.resolve("other.txt"), "content".getBytes(StandardCharsets.UTF_8));
+
+    verify(this.scheduler, after(1000).never()).updateStreams();
+  }
+
+  @Test
+  void testKubernetesSymlinkSwapIsRelevant() {
+    assertTrue(this.watcher.isRelevant(Paths.get(ConfigFileWatcher.KUBERNETES_DATA_LINK)));
+    assertTrue(this.watcher.isRelevant(Paths.get(FILE_NAME)));
+    assertFalse(this.watcher.isRelevant(Paths.get("..2024_01_01_00_00_00.000000000")));
+  }
+}
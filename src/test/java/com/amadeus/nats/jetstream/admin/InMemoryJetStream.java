@@ -0,0 +1,321 @@
+package com.amadeus.nats.jetstream.admin;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import io.nats.client.Connection;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.JetStreamManagement;
+import io.nats.client.KeyValueManagement;
+import io.nats.client.api.AccountStatistics;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.KeyValueStatus;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+import io.nats.client.impl.NatsMessage;
+
+/**
+ * In-process stand-in of the JetStream stream and key value management API, behind a {@link NatsConnection}: no
+ * server needed, a configurable latency per API call, injected write failures, and a count of the calls per method.
+ * Key value buckets are stored as their backing {@code KV_} streams, as on a real server.
+ */
+public class InMemoryJetStream {
+
+  private static final int NOT_FOUND_API_ERROR = 10059;
+
+  private static final int ALREADY_IN_USE_API_ERROR = 10058;
+
+  private static final String KEY_VALUE_STREAM_PREFIX = "KV_";
+
+  private final Map<String, StreamInfo> streams = new ConcurrentSkipListMap<>();
+
+  private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+
+  private final Set<String> failingNames = ConcurrentHashMap.newKeySet();
+
+  private final Random random = new Random(42);
+
+  private volatile long latencyNanos;
+
+  private volatile double writeFailureRate;
+
+  public NatsConnection natsConnection() {
+    return natsConnection(1);
+  }
+
+  public NatsConnection natsConnection(int applyConcurrency) {
+    return new NatsConnection(connection(), applyConcurrency);
+  }
+
+  public Connection connection() {
+    JetStreamManagement jsm = proxy(JetStreamManagement.class, this::jetStreamManagement);
+    KeyValueManagement kvm = proxy(KeyValueManagement.class, this::keyValueManagement);
+    return proxy(Connection.class, (method, args) -> {
+      switch (method.getName()) {
+        case "jetStreamManagement":
+          return jsm;
+        case "keyValueManagement":
+          return kvm;
+        case "close":
+          return null;
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  public InMemoryJetStream withLatency(Duration latency) {
+    this.latencyNanos = latency.toNanos();
+    return this;
+  }
+
+  /**
+   * Share of the create, update and delete calls failing with an {@link IOException}, picked by a seeded random.
+   */
+  public InMemoryJetStream withWriteFailureRate(double writeFailureRate) {
+    this.writeFailureRate = writeFailureRate;
+    return this;
+  }
+
+  /**
+   * Every write on the given stream or bucket fails until {@link #clearFailures()}.
+   */
+  public InMemoryJetStream failWritesOf(String name) {
+    this.failingNames.add(name);
+    return this;
+  }
+
+  public void clearFailures() {
+    this.failingNames.clear();
+    this.writeFailureRate = 0;
+  }
+
+  public void putStream(StreamConfiguration configuration) {
+    this.streams.put(configuration.getName(), streamInfo(configuration));
+  }
+
+  public void putKeyValue(KeyValueConfiguration configuration) {
+    putStream(configuration.getBackingConfig());
+  }
+
+  public StreamConfiguration getStream(String name) {
+    StreamInfo streamInfo = this.streams.get(name);
+    return streamInfo == null ? null : streamInfo.getConfiguration();
+  }
+
+  public KeyValueConfiguration getKeyValue(String bucketName) {
+    StreamInfo streamInfo = this.streams.get(KEY_VALUE_STREAM_PREFIX + bucketName);
+    return streamInfo == null ? null : new KeyValueStatus(streamInfo).getConfiguration();
+  }
+
+  /**
+   * Number of streams, key value buckets included.
+   */
+  public int size() {
+    return this.streams.size();
+  }
+
+  public void clear() {
+    this.streams.clear();
+  }
+
+  public long getCalls(String method) {
+    LongAdder adder = this.calls.get(method);
+    return adder == null ? 0 : adder.sum();
+  }
+
+  public long getTotalCalls() {
+    return this.calls.values().stream().mapToLong(LongAdder::sum).sum();
+  }
+
+  public void resetCalls() {
+    this.calls.clear();
+  }
+
+  private Object jetStreamManagement(Method method, Object[] args) throws IOException, JetStreamApiException {
+    switch (method.getName()) {
+      case "getStreams":
+        call(method);
+        return new ArrayList<>(this.streams.values());
+      case "getStreamNames":
+        call(method);
+        return new ArrayList<>(this.streams.keySet());
+      case "getStreamInfo":
+        call(method);
+        return found((String) args[0]);
+      case "addStream":
+        return addStream(method.getName(), (StreamConfiguration) args[0]);
+      case "updateStream":
+        return updateStream(method.getName(), (StreamConfiguration) args[0]);
+      case "deleteStream":
+        write(method, (String) args[0]);
+        if (this.streams.remove((String) args[0]) == null) {
+          throw notFound();
+        }
+        return true;
+      case "getAccountStatistics":
+        call(method);
+        return new AccountStatistics(message("{\"memory\":0,\"storage\":0,\"streams\":" + this.streams.size()
+            + ",\"consumers\":0}"));
+      default:
+        throw new UnsupportedOperationException(method.getName());
+    }
+  }
+
+  private Object keyValueManagement(Method method, Object[] args) throws IOException, JetStreamApiException {
+    switch (method.getName()) {
+      case "getStatuses":
+        call(method);
+        List<KeyValueStatus> statuses = new ArrayList<>();
+        this.streams.forEach((name, streamInfo) -> {
+          if (name.startsWith(KEY_VALUE_STREAM_PREFIX)) {
+            statuses.add(new KeyValueStatus(streamInfo));
+          }
+        });
+        return statuses;
+      case "getBucketNames":
+        call(method);
+        List<String> bucketNames = new ArrayList<>();
+        this.streams.keySet().forEach(name -> {
+          if (name.startsWith(KEY_VALUE_STREAM_PREFIX)) {
+            bucketNames.add(name.substring(KEY_VALUE_STREAM_PREFIX.length()));
+          }
+        });
+        return bucketNames;
+      case "getStatus":
+        call(method);
+        return new KeyValueStatus(found(KEY_VALUE_STREAM_PREFIX + args[0]));
+      case "create":
+        return new KeyValueStatus(addStream(method.getName(), ((KeyValueConfiguration) args[0]).getBackingConfig()));
+      case "update":
+        return new KeyValueStatus(updateStream(method.getName(),
+            ((KeyValueConfiguration) args[0]).getBackingConfig()));
+      case "delete":
+        write(method, KEY_VALUE_STREAM_PREFIX + args[0]);
+        if (this.streams.remove(KEY_VALUE_STREAM_PREFIX + args[0]) == null) {
+          throw notFound();
+        }
+        return null;
+      default:
+        throw new UnsupportedOperationException(method.getName());
+    }
+  }
+
+  private StreamInfo addStream(String method, StreamConfiguration configuration)
+      throws IOException, JetStreamApiException {
+    write(method, configuration.getName());
+    StreamInfo streamInfo = streamInfo(configuration);
+    if (this.streams.putIfAbsent(configuration.getName(), streamInfo) != null) {
+      throw apiError(400, ALREADY_IN_USE_API_ERROR, "stream name already in use with a different configuration");
+    }
+    return streamInfo;
+  }
+
+  private StreamInfo updateStream(String method, StreamConfiguration configuration)
+      throws IOException, JetStreamApiException {
+    write(method, configuration.getName());
+    StreamInfo streamInfo = streamInfo(configuration);
+    if (this.streams.replace(configuration.getName(), streamInfo) == null) {
+      throw notFound();
+    }
+    return streamInfo;
+  }
+
+  private StreamInfo found(String name) throws JetStreamApiException {
+    StreamInfo streamInfo = this.streams.get(name);
+    if (streamInfo == null) {
+      throw notFound();
+    }
+    return streamInfo;
+  }
+
+  private void call(Method method) {
+    call(method.getName());
+  }
+
+  private void call(String method) {
+    this.calls.computeIfAbsent(method, key -> new LongAdder()).increment();
+    if (this.latencyNanos > 0) {
+      LockSupport.parkNanos(this.latencyNanos);
+    }
+  }
+
+  private void write(Method method, String name) throws IOException {
+    write(method.getName(), name);
+  }
+
+  private void write(String method, String name) throws IOException {
+    call(method);
+    String entity = name.startsWith(KEY_VALUE_STREAM_PREFIX) ? name.substring(KEY_VALUE_STREAM_PREFIX.length()) : name;
+    boolean randomFailure;
+    synchronized (this.random) {
+      randomFailure = this.writeFailureRate > 0 && this.random.nextDouble() < this.writeFailureRate;
+    }
+    if (randomFailure || this.failingNames.contains(entity)) {
+      throw new IOException("Injected failure of " + method + " on " + name);
+    }
+  }
+
+  /**
+   * Stream info as returned by the server, parsed from its JSON API response.
+   */
+  public static StreamInfo streamInfo(StreamConfiguration configuration) {
+    return new StreamInfo(message("{\"config\":" + configuration.toJson() + ",\"created\":\"2024-01-01T00:00:00Z\","
+        + "\"state\":{\"messages\":0,\"bytes\":0,\"first_seq\":0,\"last_seq\":0,\"consumer_count\":0}}"));
+  }
+
+  private static JetStreamApiException notFound() {
+    return apiError(404, NOT_FOUND_API_ERROR, "stream not found");
+  }
+
+  private static JetStreamApiException apiError(int code, int apiErrorCode, String description) {
+    StreamInfo response = new StreamInfo(message("{\"error\":{\"code\":" + code + ",\"err_code\":" + apiErrorCode
+        + ",\"description\":\"" + description + "\"}}"));
+    try {
+      response.throwOnHasError();
+    } catch (JetStreamApiException e) {
+      return e;
+    }
+    throw new IllegalStateException("Error response expected");
+  }
+
+  private static NatsMessage message(String json) {
+    return NatsMessage.builder().subject("$JS.API").data(json, StandardCharsets.UTF_8).build();
+  }
+
+  @FunctionalInterface
+  private interface Handler {
+    Object handle(Method method, Object[] args) throws Exception;
+  }
+
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    InvocationHandler invocationHandler = (proxy, method, args) -> {
+      if (method.getDeclaringClass() == Object.class) {
+        switch (method.getName()) {
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "equals":
+            return proxy == args[0];
+          default:
+            return type.getSimpleName() + "@InMemoryJetStream";
+        }
+      }
+      return handler.handle(method, args);
+    };
+    return type.cast(Proxy.newProxyInstance(InMemoryJetStream.class.getClassLoader(), new Class<?>[] {type},
+        invocationHandler));
+  }
+}
@@ -3,13 +3,25 @@ package com.amadeus.nats.jetstream.admin;
 import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
 import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
 import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.airlift.compress.zstd.ZstdCompressor;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class JetstreamConfigResolverTest {
@@ -74,6 +86,195 @@ class JetstreamConfigResolverTest {
     assertNull(resolver.resolveConfig());
   }
 
+  @Test
+  void testLineWrappedBase64Parsing(@TempDir Path directory) throws IOException {
+    byte[] yaml = Base64.getDecoder().decode(Files.readAllBytes(
+        Paths.get(RESOURCES_BASE_PATH, VALID_CONF_WITH_STREAMS_AND_KEY_VALUES)));
+    Files.write(directory.resolve("wrapped.txt"), Base64.getMimeEncoder().encode(yaml));
+
+    JetstreamConfigs configs = new JetstreamConfigResolver(directory.toString(), "wrapped.txt").resolveConfig();
+
+    assertNotNull(configs);
+    checkStreams(configs);
+    checkKeyValues(configs);
+  }
+
+  @Test
+  void testUnchangedConfigIsReused(@TempDir Path directory) throws IOException {
+    Path file = directory.resolve("config.txt");
+    Files.copy(Paths.get(RESOURCES_BASE_PATH, VALID_CONF_WITH_STREAMS), file);
+    JetstreamConfigResolver resolver = new JetstreamConfigResolver(directory.toString(), "config.txt");
+
+    JetstreamConfigs first = resolver.resolveConfig();
+    assertSame(first, resolver.resolveConfig());
+
+    // same content written again: new modification time but same digest
+    Files.write(file, Files.readAllBytes(file));
+    assertSame(first, resolver.resolveConfig());
+
+    Files.write(file, Base64.getEncoder().encode("streamConfigs: []".getBytes(StandardCharsets.UTF_8)));
+    JetstreamConfigs changed = resolver.resolveConfig();
+    assertNotSame(first, changed);
+    assertEquals(0, changed.getStreamConfigs().size());
+  }
+
+  @Test
+  void testShardsAreMerged(@TempDir Path directory) throws IOException {
+    writeShard(directory, "team-a.txt", "streamConfigs:\n  - streamName: streamA\n    subjects: [a.>]\n");
+    writeShard(directory, "team-b.txt", "keyValueConfigs:\n  - name: bucketB\n    storage: file\n");
+    Files.createDirectory(directory.resolve("..2024_01_01"));
+
+    JetstreamConfigResolver resolver = new JetstreamConfigResolver(directory.toString(), "unused", true, 2);
+    JetstreamConfigs configs = resolver.resolveConfig();
+
+    assertNotNull(configs);
+    assertEquals(1, configs.getStreamConfigs().size());
+    assertEquals("streamA", configs.getStreamConfigs().get(0).getStreamName());
+    assertEquals(1, configs.getKeyValueConfigs().size());
+    assertEquals("bucketB", configs.getKeyValueConfigs().get(0).getName());
+    assertSame(configs, resolver.resolveConfig());
+
+    writeShard(directory, "team-b.txt", "streamConfigs:\n  - streamName: streamB\n    subjects: [b.>]\n");
+    JetstreamConfigs changed = resolver.resolveConfig();
+    assertNotSame(configs, changed);
+    assertEquals(2, changed.getStreamConfigs().size());
+    assertEquals(0, changed.getKeyValueConfigs().size());
+    // unchanged shard is not parsed again
+    assertSame(configs.getStreamConfigs().get(0), changed.getStreamConfigs().get(0));
+  }
+
+  @Test
+  void testDuplicateAcrossShardsRejected(@TempDir Path directory) throws IOException {
+    writeShard(directory, "team-a.txt", "streamConfigs:\n  - streamName: orders\n    subjects: [a.>]\n");
+    writeShard(directory, "team-b.txt", "streamConfigs:\n  - streamName: ORDERS\n    subjects: [b.>]\n");
+
+    assertNull(new JetstreamConfigResolver(directory.toString(), "unused", true, 2).resolveConfig());
+  }
+
+  @Test
+  void testEmptyShardsDirectoryRejected(@TempDir Path directory) {
+    assertNull(new JetstreamConfigResolver(directory.toString(), "unused", true, 2).resolveConfig());
+  }
+
+  @Test
+  void testGzipPayloadParsing(@TempDir Path directory) throws IOException {
+    byte[] yaml = Base64.getDecoder().decode(Files.readAllBytes(
+        Paths.get(RESOURCES_BASE_PATH, VALID_CONF_WITH_STREAMS_AND_KEY_VALUES)));
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(yaml);
+    }
+    // base64 text in configmap data, raw bytes in configmap binaryData
+    Files.write(directory.resolve("encoded.txt"), Base64.getEncoder().encode(compressed.toByteArray()));
+    Files.write(directory.resolve("raw.txt"), compressed.toByteArray());
+
+    for (String fileName : Arrays.asList("encoded.txt", "raw.txt")) {
+      JetstreamConfigs configs = new JetstreamConfigResolver(directory.toString(), fileName).resolveConfig();
+
+      assertNotNull(configs);
+      assertEquals(3, configs.getStreamConfigs().size());
+      assertEquals(3, configs.getKeyValueConfigs().size());
+      checkStreams(configs);
+      checkKeyValues(configs);
+    }
+  }
+
+  @Test
+  void testZstdPayloadResolvesLikePlainFile(@TempDir Path directory) throws IOException {
+    byte[] yaml = Base64.getDecoder().decode(Files.readAllBytes(
+        Paths.get(RESOURCES_BASE_PATH, VALID_CONF_WITH_STREAMS_AND_KEY_VALUES)));
+    ZstdCompressor compressor = new ZstdCompressor();
+    byte[] buffer = new byte[compressor.maxCompressedLength(yaml.length)];
+    byte[] compressed = Arrays.copyOf(buffer, compressor.compress(yaml, 0, yaml.length, buffer, 0, buffer.length));
+    // base64 text in configmap data, raw bytes in configmap binaryData
+    Files.write(directory.resolve("encoded.txt"), Base64.getEncoder().encode(compressed));
+    Files.write(directory.resolve("raw.txt"), compressed);
+
+    JetstreamConfigs plain = new JetstreamConfigResolver(RESOURCES_BASE_PATH, VALID_CONF_WITH_STREAMS_AND_KEY_VALUES)
+        .resolveConfig();
+    assertNotNull(plain);
+    for (String fileName : Arrays.asList("encoded.txt", "raw.txt")) {
+      JetstreamConfigs configs = new JetstreamConfigResolver(directory.toString(), fileName).resolveConfig();
+
+      assertNotNull(configs);
+      assertEquals(plain.getStreamConfigs(), configs.getStreamConfigs());
+      assertEquals(plain.getKeyValueConfigs(), configs.getKeyValueConfigs());
+    }
+  }
+
+  @Test
+  void testTemplatesAreExpanded(@TempDir Path directory) throws IOException {
+    String templates = "streamTemplates:\n"
+        + "  - name: tenants\n"
+        + "    values: [acme, globex]\n"
+        + "    range: {from: 1, to: 2, format: \"t%02d\"}\n"
+        + "    spec: {streamName: \"orders-${value}\", subjects: [\"${value}.orders.>\"], storage: file, replicas: 3}\n"
+        + "keyValueTemplates:\n"
+        + "  - name: caches\n"
+        + "    range: {from: 0, to: 9}\n"
+        + "    spec: {name: \"cache-${value}\", storage: memory, timeToLiveInSeconds: 60}\n";
+    writeShard(directory, "config.txt", templates);
+    JetstreamConfigResolver resolver = new JetstreamConfigResolver(directory.toString(), "config.txt");
+
+    JetstreamConfigs configs = resolver.resolveConfig();
+
+    assertNotNull(configs);
+    assertEquals(4, configs.getStreamConfigs().size());
+    StreamConfig globex = configs.getStreamConfigs().get(1);
+    assertEquals("orders-globex", globex.getStreamName());
+    assertEquals("globex.orders.>", globex.getSubjects().get(0));
+    assertEquals(3, globex.getReplicas());
+    assertEquals("orders-t02", configs.getStreamConfigs().get(3).getStreamName());
+    assertEquals(10, configs.getKeyValueConfigs().size());
+    assertEquals("cache-9", configs.getKeyValueConfigs().get(9).getName());
+    assertEquals(60, configs.getKeyValueConfigs().get(9).getTimeToLiveInSeconds());
+
+    // unchanged families are not generated again when another part of the file changes
+    writeShard(directory, "config.txt", templates + "streamConfigs:\n  - streamName: single\n    subjects: [s.>]\n");
+    JetstreamConfigs changed = resolver.resolveConfig();
+    assertEquals(5, changed.getStreamConfigs().size());
+    assertEquals("single", changed.getStreamConfigs().get(0).getStreamName());
+    assertSame(configs.getStreamConfigs().get(0), changed.getStreamConfigs().get(1));
+    assertSame(configs.getKeyValueConfigs().get(0), changed.getKeyValueConfigs().get(0));
+  }
+
+  @Test
+  void testTemplateWithoutPlaceholderRejected(@TempDir Path directory) throws IOException {
+    writeShard(directory, "config.txt", "streamTemplates:\n  - name: broken\n    values: [a, b]\n"
+        + "    spec: {streamName: orders, subjects: [orders.>]}\n");
+
+    assertNull(new JetstreamConfigResolver(directory.toString(), "config.txt").resolveConfig());
+  }
+
+  @Test
+  void testTemplateMemberAlsoDefinedRejected(@TempDir Path directory) throws IOException {
+    writeShard(directory, "config.txt", "streamTemplates:\n  - name: tenants\n    values: [acme, globex]\n"
+        + "    spec: {streamName: \"orders-${value}\", subjects: [\"${value}.orders.>\"]}\n"
+        + "streamConfigs:\n  - streamName: Orders-Acme\n    subjects: [acme.>]\n");
+
+    assertNull(new JetstreamConfigResolver(directory.toString(), "config.txt").resolveConfig());
+  }
+
+  @Test
+  void testTemplateRangeTooLargeRejected(@TempDir Path directory) throws IOException {
+    writeShard(directory, "config.txt", "streamTemplates:\n  - name: tenants\n"
+        + "    range: {from: 0, to: 2147483647}\n"
+        + "    spec: {streamName: \"orders-${value}\", subjects: [\"${value}.orders.>\"]}\n");
+
+    assertNull(new JetstreamConfigResolver(directory.toString(), "config.txt").resolveConfig());
+
+    // a range ending on the largest integer ends
+    writeShard(directory, "config.txt", "streamTemplates:\n  - name: tenants\n"
+        + "    range: {from: 2147483646, to: 2147483647}\n"
+        + "    spec: {streamName: \"orders-${value}\", subjects: [\"${value}.orders.>\"]}\n");
+    JetstreamConfigs configs = new JetstreamConfigResolver(directory.toString(), "config.txt").resolveConfig();
+    assertNotNull(configs);
+    assertEquals(2, configs.getStreamConfigs().size());
+  }
+
+  private static void writeShard(Path directory, String fileName, String yaml) throws IOException {
+    Files.write(directory.resolve(fileName), Base64.getEncoder().encode(yaml.getBytes(StandardCharsets.UTF_8)));
+  }
 
   private static void checkStreams(JetstreamConfigs configs) {
     for (StreamConfig config: configs.getStreamConfigs()) {
@@ -0,0 +1,71 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class JetstreamControllerMainTest {
+
+  private NatsConnection nc;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  private JetstreamControllerMain main;
+
+  @BeforeEach
+  public void setUp() {
+    this.nc = mock(NatsConnection.class);
+    this.scheduler = mock(JetstreamUpdatesScheduler.class);
+    this.main = new JetstreamControllerMain(this.nc, this.scheduler, Duration.ofSeconds(1),
+        JetstreamConfigSources.FILE);
+  }
+
+  @Test
+  void testExitStatusReflectsFailures() throws InterruptedException {
+    when(this.nc.awaitConnection(Duration.ofSeconds(1))).thenReturn(true);
+    when(this.scheduler.reconcileOnce()).thenReturn(true);
+    assertEquals(JetstreamControllerMain.APPLIED, this.main.run(JetstreamControllerMain.RECONCILE_ONCE));
+
+    when(this.scheduler.reconcileOnce()).thenReturn(false);
+    assertEquals(JetstreamControllerMain.FAILED, this.main.run(JetstreamControllerMain.RECONCILE_ONCE));
+  }
+
+  @Test
+  void testNothingReconciledWhenNotConnected() throws InterruptedException {
+    when(this.nc.awaitConnection(Duration.ofSeconds(1))).thenReturn(false);
+
+    assertEquals(JetstreamControllerMain.NOT_CONNECTED, this.main.run(JetstreamControllerMain.RECONCILE_ONCE));
+    verify(this.scheduler, never()).reconcileOnce();
+  }
+
+  @Test
+  void testConfigBucketRejected() throws InterruptedException {
+    JetstreamControllerMain keyValueMain = new JetstreamControllerMain(this.nc, this.scheduler, Duration.ofSeconds(1),
+        JetstreamConfigSources.KEY_VALUE);
+
+    assertEquals(JetstreamControllerMain.FAILED, keyValueMain.run(JetstreamControllerMain.RECONCILE_ONCE));
+    verify(this.scheduler, never()).reconcileOnce();
+  }
+
+  @Test
+  void testOneShotProfileAddedToActiveOnes() {
+    assertEquals("prod,oneshot", JetstreamControllerMain.oneShotProfiles(null));
+    assertEquals("staging,oneshot", JetstreamControllerMain.oneShotProfiles("staging"));
+  }
+
+  @Test
+  void testServiceModeByDefault() {
+    assertTrue(JetstreamControllerMain.isReconcileOnce("reconcile-once"));
+    assertFalse(JetstreamControllerMain.isReconcileOnce());
+    assertFalse(JetstreamControllerMain.isReconcileOnce("serve"));
+  }
+}
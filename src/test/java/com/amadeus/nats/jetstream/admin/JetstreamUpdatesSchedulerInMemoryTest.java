@@ -0,0 +1,225 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.nats.client.ConnectionListener.Events;
+import io.nats.client.api.StreamConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class JetstreamUpdatesSchedulerInMemoryTest {
+
+  private static final int FLEET = 10_000;
+
+  private InMemoryJetStream jetStream;
+
+  private JetstreamConfigs configs;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  @BeforeEach
+  public void setUp() {
+    this.jetStream = new InMemoryJetStream();
+    this.configs = new JetstreamConfigs();
+    for (int i = 0; i < FLEET; i++) {
+      StreamConfig streamConfig = new StreamConfig();
+      streamConfig.setStreamName("stream" + i);
+      streamConfig.setSubjects(List.of("tenant" + i + ".>"));
+      streamConfig.setStorage("file");
+      streamConfig.setReplicas(3);
+      streamConfig.setRetention("limits");
+      streamConfig.setMaxAge(3600);
+      this.configs.getStreamConfigs().add(streamConfig);
+    }
+    KeyValueConfig keyValueConfig = new KeyValueConfig();
+    keyValueConfig.setName("bucket");
+    keyValueConfig.setStorage("memory");
+    keyValueConfig.setReplicas(1);
+    keyValueConfig.setMaxHistoryPerKey(5);
+    keyValueConfig.setTimeToLiveInSeconds(60);
+    this.configs.getKeyValueConfigs().add(keyValueConfig);
+
+    this.scheduler = createScheduler(this.jetStream.natsConnection());
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.scheduler.close();
+  }
+
+  private JetstreamUpdatesScheduler createScheduler(NatsConnection nc) {
+    return createScheduler(nc, JetstreamUpdatesScheduler.INVENTORY_FULL);
+  }
+
+  private JetstreamUpdatesScheduler createScheduler(NatsConnection nc, String inventory) {
+    return createScheduler(nc, inventory, false, Duration.ofMinutes(30));
+  }
+
+  private JetstreamUpdatesScheduler createScheduler(NatsConnection nc, String inventory, boolean skipUnchanged,
+      Duration fullResyncInterval) {
+    return new JetstreamUpdatesScheduler(nc, () -> this.configs, new ReconcileSnapshotStore(Optional.empty()),
+        new UpdateStager(nc), new ServerStateCache(nc), new LeaderElection(), new ShardMembership(),
+        new ReconcileTargets(), new SimpleMeterRegistry(), skipUnchanged, fullResyncInterval, Duration.ofMinutes(5),
+        Duration.ofMinutes(5), inventory, Duration.ofSeconds(1), Duration.ofMinutes(5), 10);
+  }
+
+  @Test
+  void testColdStartThenSteadyState() {
+    this.scheduler.updateStreams();
+
+    assertEquals(FLEET + 1, this.jetStream.size());
+    assertEquals(FLEET, this.jetStream.getCalls("addStream"));
+    assertEquals(1, this.jetStream.getCalls("create"));
+    assertEquals(Duration.ofSeconds(60), this.jetStream.getKeyValue("bucket").getTtl());
+
+    this.jetStream.resetCalls();
+    this.scheduler.updateStreams();
+
+    // only the two listings, no write
+    assertEquals(2, this.jetStream.getTotalCalls());
+  }
+
+  @Test
+  void testOutOfBandEditRevertedByDefault() {
+    this.scheduler.updateStreams();
+
+    this.jetStream.putStream(StreamConfiguration.builder(this.jetStream.getStream("stream42")).replicas(1).build());
+    this.scheduler.updateStreams();
+
+    assertEquals(3, this.jetStream.getStream("stream42").getReplicas());
+  }
+
+  @Test
+  void testSkippedRunsMissOutOfBandEditsUntilFullResync() throws InterruptedException {
+    this.scheduler = createScheduler(this.jetStream.natsConnection(), JetstreamUpdatesScheduler.INVENTORY_FULL, true,
+        Duration.ofSeconds(1));
+    this.scheduler.updateStreams();
+
+    // the stream count does not move on an edit
+    this.jetStream.putStream(StreamConfiguration.builder(this.jetStream.getStream("stream42")).replicas(1).build());
+    this.scheduler.updateStreams();
+    assertEquals(1, this.jetStream.getStream("stream42").getReplicas());
+
+    Thread.sleep(1100);
+    this.scheduler.updateStreams();
+    assertEquals(3, this.jetStream.getStream("stream42").getReplicas());
+  }
+
+  @Test
+  void testFailedWritesAreRetried() {
+    this.jetStream.failWritesOf("stream7");
+
+    this.scheduler.updateStreams();
+    assertNull(this.jetStream.getStream("stream7"));
+    assertEquals(FLEET, this.jetStream.size());
+
+    this.jetStream.clearFailures();
+    this.scheduler.updateStreams();
+    assertNotNull(this.jetStream.getStream("stream7"));
+  }
+
+  @Test
+  void testConcurrentApply() {
+    NatsConnection nc = this.jetStream.withLatency(Duration.ofMillis(1)).natsConnection(16);
+    this.scheduler = createScheduler(nc);
+    this.jetStream.withWriteFailureRate(0.01);
+
+    try {
+      this.scheduler.updateStreams();
+      assertTrue(this.jetStream.size() < FLEET + 1);
+
+      this.jetStream.clearFailures();
+      this.scheduler.updateStreams();
+      assertEquals(FLEET + 1, this.jetStream.size());
+    } finally {
+      nc.close();
+    }
+  }
+
+  @Test
+  void testInventoryByName() {
+    int fleet = JetstreamUpdatesScheduler.INVENTORY_BY_NAME_MAX;
+    this.configs.getStreamConfigs().subList(fleet, FLEET).clear();
+    this.scheduler = createScheduler(this.jetStream.natsConnection(), JetstreamUpdatesScheduler.INVENTORY_NAMES);
+    this.jetStream.putStream(StreamConfiguration.builder().name("unknown").subjects("unknown.>").build());
+
+    this.scheduler.updateStreams();
+    assertEquals(fleet + 1, this.jetStream.size());
+    assertNull(this.jetStream.getStream("unknown"));
+    assertEquals(0, this.jetStream.getCalls("getStreams"));
+    assertEquals(0, this.jetStream.getCalls("getStatuses"));
+
+    // an out of band change is found by the lookup of the existing streams
+    this.jetStream.putStream(StreamConfiguration.builder(this.jetStream.getStream("stream42")).replicas(1).build());
+    this.jetStream.resetCalls();
+    this.scheduler.updateStreams();
+
+    assertEquals(3, this.jetStream.getStream("stream42").getReplicas());
+    assertEquals(fleet, this.jetStream.getCalls("getStreamInfo"));
+    assertEquals(1, this.jetStream.getCalls("updateStream"));
+  }
+
+  @Test
+  void testInventoryByNameListsLargeFleets() {
+    this.scheduler = createScheduler(this.jetStream.natsConnection(), JetstreamUpdatesScheduler.INVENTORY_NAMES);
+    this.scheduler.updateStreams();
+
+    this.jetStream.putStream(StreamConfiguration.builder(this.jetStream.getStream("stream42")).replicas(1).build());
+    this.jetStream.resetCalls();
+    this.scheduler.updateStreams();
+
+    // one paginated listing rather than an info request per stream
+    assertEquals(3, this.jetStream.getStream("stream42").getReplicas());
+    assertEquals(1, this.jetStream.getCalls("getStreams"));
+    assertEquals(0, this.jetStream.getCalls("getStreamInfo"));
+  }
+
+  @Test
+  void testReconcileOnceReportsFailures() {
+    this.jetStream.failWritesOf("stream7");
+    assertFalse(this.scheduler.reconcileOnce());
+    assertEquals(FLEET, this.jetStream.size());
+
+    this.jetStream.clearFailures();
+    assertTrue(this.scheduler.reconcileOnce());
+    assertNotNull(this.jetStream.getStream("stream7"));
+
+    this.configs = null;
+    assertFalse(this.scheduler.reconcileOnce());
+  }
+
+  @Test
+  void testReconnectionRepairsLostEntities() throws InterruptedException {
+    NatsConnection nc = this.jetStream.natsConnection();
+    this.scheduler = createScheduler(nc);
+    this.scheduler.updateStreams();
+
+    // a restarted server lost everything
+    this.jetStream.clear();
+    this.jetStream.resetCalls();
+    nc.connectionEvent(this.jetStream.connection(), Events.RECONNECTED);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (this.jetStream.size() < FLEET + 1 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(FLEET + 1, this.jetStream.size());
+    // a single full run, not a lookup of each managed entity
+    assertEquals(1, this.jetStream.getCalls("getStreams"));
+    assertEquals(0, this.jetStream.getCalls("getStreamInfo"));
+  }
+}
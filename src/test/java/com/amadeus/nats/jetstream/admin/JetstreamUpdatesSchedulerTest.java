@@ -1,7 +1,11 @@
 package com.amadeus.nats.jetstream.admin;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -12,9 +16,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
 import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.ReconcileSnapshot;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.nats.client.api.KeyValueConfiguration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -35,13 +44,32 @@ class JetstreamUpdatesSchedulerTest {
 
   private JetstreamConfigResolver resolver;
 
+  private ReconcileSnapshotStore snapshotStore;
+
+  private MeterRegistry registry;
+
+  private LeaderElection leaderElection;
+
+  private ShardMembership shards;
+
   @BeforeEach
   public void setUp() {
 
     this.nc = mock(NatsConnection.class);
     this.resolver = mock(JetstreamConfigResolver.class);
+    this.snapshotStore = mock(ReconcileSnapshotStore.class);
+    this.registry = new SimpleMeterRegistry();
+    this.leaderElection = new LeaderElection();
+    this.shards = new ShardMembership();
 
-    this.scheduler = new JetstreamUpdatesScheduler(this.nc, this.resolver);
+    this.scheduler = createScheduler();
+  }
+
+  private JetstreamUpdatesScheduler createScheduler() {
+    return new JetstreamUpdatesScheduler(this.nc, this.resolver, this.snapshotStore, new UpdateStager(this.nc),
+        new ServerStateCache(this.nc), this.leaderElection, this.shards, new ReconcileTargets(), this.registry, true,
+        Duration.ofMinutes(30), Duration.ofMinutes(5), Duration.ofMinutes(5), JetstreamUpdatesScheduler.INVENTORY_FULL,
+        Duration.ofSeconds(1), Duration.ofMinutes(5), 10);
   }
 
   @Test
@@ -81,6 +109,154 @@ class JetstreamUpdatesSchedulerTest {
     verify(this.nc, times(1)).deleteKeyValues(Collections.emptyList());
   }
 
+  @Test
+  void testSchedulerSkipsWhenConfigAndServerUnchanged() throws IOException, JetStreamApiException {
+    JetstreamConfigs configs = createConfigs();
+    when(this.resolver.resolveConfig()).thenReturn(configs);
+    when(this.nc.getServerChangeIndicator()).thenReturn(2L);
+
+    this.scheduler.updateStreams();
+    this.scheduler.updateStreams();
+
+    verify(this.nc, times(1)).getCurrentStreamConfig();
+    verify(this.nc, times(1)).getCurrentKeyValuesConfig();
+    assertEquals(1, reconcileRuns("executed"));
+    assertEquals(1, reconcileRuns("skipped"));
+  }
+
+  @Test
+  void testSchedulerReconcilesWhenServerChanged() throws IOException, JetStreamApiException {
+    JetstreamConfigs configs = createConfigs();
+    when(this.resolver.resolveConfig()).thenReturn(configs);
+    when(this.nc.getServerChangeIndicator()).thenReturn(2L, 2L, 1L);
+
+    this.scheduler.updateStreams();
+    this.scheduler.updateStreams();
+
+    verify(this.nc, times(2)).getCurrentStreamConfig();
+    assertEquals(2, reconcileRuns("executed"));
+  }
+
+  @Test
+  void testSchedulerReconcilesAgainAfterFailure() throws IOException, JetStreamApiException {
+    JetstreamConfigs configs = createConfigs();
+    when(this.resolver.resolveConfig()).thenReturn(configs);
+    when(this.nc.createStreams(anyList())).thenReturn(List.of("stream3"));
+
+    this.scheduler.updateStreams();
+    this.scheduler.updateStreams();
+
+    verify(this.nc, times(2)).getCurrentStreamConfig();
+    assertEquals(0, reconcileRuns("skipped"));
+  }
+
+  @Test
+  void testWarmStartOnlyAppliesWhatDiffersFromSnapshot() throws IOException, JetStreamApiException {
+    JetstreamConfigs configs = createConfigs();
+    ReconcileSnapshot snapshot = ReconcileSnapshotStore.snapshotOf(configs);
+    // stream4 changed since the snapshot, stream5 was removed from the config
+    snapshot.getStreams().put("stream4", 42L);
+    snapshot.getStreams().put("stream5", 43L);
+    when(this.snapshotStore.load()).thenReturn(Optional.of(snapshot));
+    when(this.resolver.resolveConfig()).thenReturn(configs);
+    this.scheduler = createScheduler();
+
+    this.scheduler.updateStreams();
+
+    verify(this.nc, never()).getCurrentStreamConfig();
+    verify(this.nc, never()).getCurrentKeyValuesConfig();
+    verify(this.nc, times(1)).getStreamsConfig(List.of("stream4"));
+    verify(this.nc, never()).getKeyValuesConfig(anyCollection());
+    verify(this.nc, times(1)).createStreams(argThat(streams -> streams.size() == 1
+        && "stream4".equals(streams.get(0).getName())));
+    verify(this.nc, times(1)).deleteStreams(argThat(streams -> streams.size() == 1
+        && "stream5".equals(streams.get(0).getName())));
+    verify(this.snapshotStore, times(1)).save(configs);
+
+    // the full resync is postponed, next run is skipped
+    this.scheduler.updateStreams();
+    verify(this.nc, never()).getCurrentStreamConfig();
+    assertEquals(1, reconcileRuns("skipped"));
+  }
+
+  @Test
+  void testReconcileEntitiesOnlyTouchesGivenEntities() throws IOException, JetStreamApiException {
+    when(this.resolver.resolveConfig()).thenReturn(createConfigs());
+    when(this.resolver.getReservedKeyValues()).thenReturn(Set.of("jetstream-configs"));
+
+    this.scheduler.reconcileEntities(Set.of("stream2", "stream9"), Set.of("bucket1", "jetstream-configs"));
+
+    verify(this.nc, never()).getCurrentStreamConfig();
+    verify(this.nc, never()).getCurrentKeyValuesConfig();
+    verify(this.nc, times(1)).getStreamsConfig(List.of("stream2"));
+    verify(this.nc, times(1)).getKeyValuesConfig(List.of("bucket1"));
+    verify(this.nc, times(1)).deleteStreams(argThat(streams -> streams.size() == 1
+        && "stream9".equals(streams.get(0).getName())));
+    // the bucket holding the desired state is never deleted
+    verify(this.nc, times(1)).deleteKeyValues(Collections.emptyList());
+    assertEquals(1, reconcileRuns("executed"));
+  }
+
+  @Test
+  void testFollowerDoesNotReconcile() throws IOException, JetStreamApiException {
+    this.leaderElection = mock(LeaderElection.class);
+    when(this.leaderElection.getReservedKeyValues()).thenReturn(Set.of("jetstream-controller-leader"));
+    this.scheduler = createScheduler();
+    when(this.resolver.resolveConfig()).thenReturn(createConfigs());
+
+    this.scheduler.updateStreams();
+    assertEquals(List.of(), this.scheduler.reconcileEntities(Set.of("stream2"), Set.of("bucket1")));
+
+    verify(this.nc, never()).getCurrentStreamConfig();
+    verify(this.nc, never()).createStreams(anyList());
+    verify(this.nc, never()).deleteKeyValues(anyList());
+    assertEquals(0, reconcileRuns("executed"));
+
+    // once elected, the lease bucket is kept as the bucket of the desired state
+    when(this.leaderElection.isLeader()).thenReturn(true);
+    when(this.nc.getCurrentStreamConfig()).thenReturn(new ArrayList<>());
+    when(this.nc.getCurrentKeyValuesConfig()).thenReturn(new ArrayList<>(List.of(
+        KeyValueConfiguration.builder().name("jetstream-controller-leader").build())));
+    this.scheduler.updateStreams();
+
+    verify(this.nc, times(1)).createStreams(anyList());
+    verify(this.nc, times(1)).deleteKeyValues(Collections.emptyList());
+  }
+
+  @Test
+  void testShardOnlyTouchesItsSlice() throws IOException, JetStreamApiException {
+    this.shards = mock(ShardMembership.class);
+    when(this.shards.isEnabled()).thenReturn(true);
+    when(this.shards.ownsStream(argThat(name -> Set.of("stream1", "stream3").contains(name)))).thenReturn(true);
+    this.scheduler = createScheduler();
+    when(this.resolver.resolveConfig()).thenReturn(createConfigs());
+    when(this.nc.getCurrentStreamConfig()).thenReturn(createExistingStreamsConfig());
+    when(this.nc.getCurrentKeyValuesConfig()).thenReturn(createExistingKeyValues());
+
+    this.scheduler.updateStreams();
+
+    verify(this.nc, times(1)).createStreams(argThat(streams -> streams.size() == 1
+        && "stream3".equals(streams.get(0).getName())));
+    verify(this.nc, times(1)).updateStreams(argThat(streams -> streams.size() == 1
+        && "stream1".equals(streams.get(0).getName())));
+    // stream2 and the buckets belong to other replicas, even when not desired
+    verify(this.nc, times(1)).deleteStreams(Collections.emptyList());
+    verify(this.nc, times(1)).createKeyValues(Collections.emptyList());
+    verify(this.nc, times(1)).updateKeyValues(Collections.emptyList());
+    verify(this.nc, times(1)).deleteKeyValues(Collections.emptyList());
+
+    // a new slice is reconciled, even when nothing else changed
+    this.scheduler.updateStreams();
+    when(this.shards.getVersion()).thenReturn(1L);
+    this.scheduler.updateStreams();
+    assertEquals(1, reconcileRuns("skipped"));
+    assertEquals(2, reconcileRuns("executed"));
+  }
+
+  private double reconcileRuns(String result) {
+    return this.registry.get("jetstream.reconcile.runs").tag("result", result).counter().count();
+  }
+
   private JetstreamConfigs createConfigs() {
     JetstreamConfigs configs = new JetstreamConfigs();
 
@@ -0,0 +1,117 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import io.nats.client.api.KeyValueEntry;
+import io.nats.client.api.KeyValueOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KeyValueConfigSourceTest {
+
+  private static final String BUCKET = "jetstream-configs";
+
+  private NatsConnection nc;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  private KeyValueConfigSource source;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    this.nc = mock(NatsConnection.class);
+    this.scheduler = mock(JetstreamUpdatesScheduler.class);
+    this.source = new KeyValueConfigSource(this.nc, this.scheduler, JetstreamConfigSources.KEY_VALUE, BUCKET);
+    this.source.start();
+    verify(this.nc).watchKeyValue(eq(BUCKET), any());
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.source.stop();
+  }
+
+  @Test
+  void testFullReconcileOnceLoaded() {
+    this.source.watch(entry("streams.orders", "subjects: [orders.>]\nstorage: file\nreplicas: 3"));
+    this.source.watch(entry("keyValues.cache", "{\"storage\": \"memory\", \"timeToLiveInSeconds\": 60}"));
+    assertNull(this.source.resolveConfig());
+
+    this.source.endOfData();
+
+    verify(this.scheduler, timeout(1000)).updateStreams();
+    JetstreamConfigs configs = this.source.resolveConfig();
+    assertNotNull(configs);
+    assertEquals("orders", configs.getStreamConfigs().get(0).getStreamName());
+    assertEquals(3, configs.getStreamConfigs().get(0).getReplicas());
+    assertEquals("cache", configs.getKeyValueConfigs().get(0).getName());
+    assertEquals(60, configs.getKeyValueConfigs().get(0).getTimeToLiveInSeconds());
+    assertSame(configs, this.source.resolveConfig());
+  }
+
+  @Test
+  void testKeyChangesReconcileOnlyTheirEntity() {
+    this.source.watch(entry("streams.orders", "subjects: [orders.>]"));
+    this.source.endOfData();
+    JetstreamConfigs loaded = this.source.resolveConfig();
+
+    this.source.watch(entry("streams.payments", "subjects: [payments.>]"));
+    verify(this.scheduler, timeout(1000)).enqueue(Set.of("payments"), Set.of());
+    JetstreamConfigs changed = this.source.resolveConfig();
+    assertNotSame(loaded, changed);
+    assertEquals(2, changed.getStreamConfigs().size());
+
+    this.source.watch(deleted("streams.orders"));
+    verify(this.scheduler, timeout(1000)).enqueue(Set.of("orders"), Set.of());
+    assertEquals(1, this.source.resolveConfig().getStreamConfigs().size());
+  }
+
+  @Test
+  void testInvalidValueKeepsPreviousSpec() {
+    this.source.watch(entry("streams.orders", "subjects: [orders.>]\nreplicas: 3"));
+    this.source.endOfData();
+
+    this.source.watch(entry("streams.orders", "subjects: [orders.>"));
+    this.source.watch(entry("streams.orders", "streamName: payments"));
+
+    assertEquals(3, this.source.resolveConfig().getStreamConfigs().get(0).getReplicas());
+  }
+
+  @Test
+  void testEmptyBucketIgnored() {
+    this.source.endOfData();
+
+    assertNull(this.source.resolveConfig());
+    assertEquals(Set.of(BUCKET), this.source.getReservedKeyValues());
+  }
+
+  private static KeyValueEntry entry(String key, String value) {
+    KeyValueEntry entry = mock(KeyValueEntry.class);
+    when(entry.getKey()).thenReturn(key);
+    when(entry.getOperation()).thenReturn(KeyValueOperation.PUT);
+    when(entry.getValue()).thenReturn(value.getBytes(StandardCharsets.UTF_8));
+    return entry;
+  }
+
+  private static KeyValueEntry deleted(String key) {
+    KeyValueEntry entry = mock(KeyValueEntry.class);
+    when(entry.getKey()).thenReturn(key);
+    when(entry.getOperation()).thenReturn(KeyValueOperation.DELETE);
+    return entry;
+  }
+}
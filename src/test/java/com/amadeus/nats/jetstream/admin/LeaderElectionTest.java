@@ -0,0 +1,142 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.KeyValue;
+import io.nats.client.api.KeyValueEntry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LeaderElectionTest {
+
+  private static final String BUCKET = "jetstream-controller-leader";
+
+  private static final byte[] IDENTITY = "controller-0".getBytes(StandardCharsets.UTF_8);
+
+  private NatsConnection nc;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  private KeyValue keyValue;
+
+  private MeterRegistry registry;
+
+  private LeaderElection election;
+
+  @BeforeEach
+  public void setUp() throws IOException, JetStreamApiException {
+    this.nc = mock(NatsConnection.class);
+    this.scheduler = mock(JetstreamUpdatesScheduler.class);
+    this.keyValue = mock(KeyValue.class);
+    this.registry = new SimpleMeterRegistry();
+    when(this.nc.leaseBucket(BUCKET, Duration.ofHours(1), 1)).thenReturn(this.keyValue);
+    // renewed by the tests themselves after the first attempt
+    this.election = new LeaderElection(this.nc, this.scheduler, this.registry, true, BUCKET, Duration.ofHours(1),
+        Duration.ofHours(1), 1, Optional.of("controller-0"));
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.election.stop();
+  }
+
+  @Test
+  void testFreeLeaseWonAndRenewed() throws IOException, JetStreamApiException {
+    when(this.keyValue.create(LeaderElection.LEASE_KEY, IDENTITY)).thenReturn(7L);
+
+    this.election.start();
+
+    verify(this.scheduler, timeout(1000)).updateStreams();
+    assertTrue(this.election.isLeader());
+    assertEquals(1, this.registry.get("jetstream.leader").gauge().value());
+
+    when(this.keyValue.update(LeaderElection.LEASE_KEY, IDENTITY, 7L)).thenReturn(8L);
+    this.election.renew();
+    this.election.renew();
+
+    verify(this.keyValue).update(LeaderElection.LEASE_KEY, IDENTITY, 8L);
+    assertTrue(this.election.isLeader());
+  }
+
+  @Test
+  void testLeaseHeldByAnotherReplica() throws IOException, JetStreamApiException {
+    KeyValueEntry entry = mock(KeyValueEntry.class);
+    when(entry.getValueAsString()).thenReturn("controller-1");
+    when(this.keyValue.get(LeaderElection.LEASE_KEY)).thenReturn(entry);
+
+    this.election.renew();
+
+    assertFalse(this.election.isLeader());
+    verify(this.keyValue, never()).create(any(), any(byte[].class));
+    verify(this.keyValue, never()).update(any(), any(byte[].class), anyLong());
+    assertEquals(0, this.registry.get("jetstream.leader").gauge().value());
+    // the lease is read within the API rate limit of the other calls
+    verify(this.nc).acquireRead();
+    verify(this.nc, never()).acquireWrite();
+  }
+
+  @Test
+  void testLeadershipLostOnRevisionMismatch() throws IOException, JetStreamApiException {
+    when(this.keyValue.create(LeaderElection.LEASE_KEY, IDENTITY)).thenReturn(7L);
+    this.election.renew();
+    assertTrue(this.election.isLeader());
+
+    when(this.keyValue.update(LeaderElection.LEASE_KEY, IDENTITY, 7L)).thenThrow(mock(JetStreamApiException.class));
+    this.election.renew();
+
+    assertFalse(this.election.isLeader());
+  }
+
+  @Test
+  void testLeadershipKeptOnTransientErrorWithinLease() throws IOException, JetStreamApiException {
+    when(this.keyValue.create(LeaderElection.LEASE_KEY, IDENTITY)).thenReturn(7L);
+    this.election.renew();
+
+    when(this.keyValue.update(eq(LeaderElection.LEASE_KEY), any(byte[].class), anyLong()))
+        .thenThrow(new IOException("Timeout or no response waiting for NATS JetStream server"));
+    this.election.renew();
+
+    assertTrue(this.election.isLeader());
+  }
+
+  @Test
+  void testLeaseReleasedOnStop() throws IOException, JetStreamApiException {
+    when(this.keyValue.create(LeaderElection.LEASE_KEY, IDENTITY)).thenReturn(7L);
+    this.election.start();
+    verify(this.scheduler, timeout(1000)).updateStreams();
+
+    this.election.stop();
+
+    assertFalse(this.election.isLeader());
+    verify(this.keyValue).delete(LeaderElection.LEASE_KEY);
+  }
+
+  @Test
+  void testDisabledElectionAlwaysLeads() {
+    LeaderElection disabled = new LeaderElection();
+
+    assertTrue(disabled.isLeader());
+    assertEquals(Set.of(), disabled.getReservedKeyValues());
+    assertEquals(Set.of(BUCKET), this.election.getReservedKeyValues());
+  }
+}
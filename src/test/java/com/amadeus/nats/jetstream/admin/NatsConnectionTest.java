@@ -1,34 +1,56 @@
 package com.amadeus.nats.jetstream.admin;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.nats.client.Connection;
+import io.nats.client.ConnectionListener.Events;
 import io.nats.client.JetStreamApiException;
 import io.nats.client.JetStreamManagement;
+import io.nats.client.JetStreamOptions;
+import io.nats.client.KeyValue;
+import io.nats.client.KeyValueManagement;
+import io.nats.client.KeyValueOptions;
 import io.nats.client.Nats;
 import io.nats.client.Options;
 import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
 
 class NatsConnectionTest {
 
   private NatsConnection nc;
 
+  private Connection natsCo;
+
   private JetStreamManagement jsm;
 
   private static MockedStatic<Nats> mockedNats;
@@ -40,16 +62,19 @@ class NatsConnectionTest {
 
   @BeforeEach
   public void setUp() throws IOException {
-    Connection natsCo = mock(Connection.class);
-    mockedNats.when(() -> Nats.connect(any(Options.class))).thenReturn(natsCo);
+    this.natsCo = mock(Connection.class);
+    mockedNats.when(() -> Nats.connect(any(Options.class))).thenReturn(this.natsCo);
     this.jsm = mock(JetStreamManagement.class);
-    when(natsCo.jetStreamManagement()).thenReturn(this.jsm);
+    when(this.natsCo.jetStreamManagement()).thenReturn(this.jsm);
+    when(this.natsCo.jetStreamManagement(any(JetStreamOptions.class))).thenReturn(this.jsm);
 
     try {
-      this.nc = new NatsConnection("");
+      this.nc = new NatsConnection("", new NatsConnectionOptions(), 1, 0, 0, 1, new SimpleMeterRegistry());
     } catch (IOException | InterruptedException e) {
       fail(e);
     }
+    // the connection is established in the background
+    this.nc.connectionEvent(this.natsCo, Events.CONNECTED);
   }
 
   @Test
@@ -97,6 +122,157 @@ class NatsConnectionTest {
     verify(this.jsm, never()).deleteStream(any(String.class));
   }
 
+  @Test
+  void testDeletionOfMissingStreamSucceeds() throws IOException {
+    InMemoryJetStream jetStream = new InMemoryJetStream();
+    NatsConnection inMemory = jetStream.natsConnection();
+    try {
+      assertTrue(inMemory.deleteStreams(List.of(StreamConfiguration.builder().name("gone").build())).isEmpty());
+      assertTrue(inMemory.isRecentlyWritten("gone"));
+      assertFalse(inMemory.isRecentlyWritten("other"));
+    } finally {
+      inMemory.close();
+    }
+  }
+
+  @Test
+  void testConcurrentApplyCollectsFailuresPerEntity() throws IOException, JetStreamApiException {
+    NatsConnection concurrent = new NatsConnection(this.natsCo, 4);
+    List<StreamConfiguration> streams = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      streams.add(StreamConfiguration.builder().name("name" + i).build());
+    }
+    when(this.jsm.addStream(any(StreamConfiguration.class))).thenAnswer(invocation -> {
+      String name = invocation.<StreamConfiguration>getArgument(0).getName();
+      if (name.equals("name7") || name.equals("name42")) {
+        throw new IOException("Timeout");
+      }
+      return null;
+    });
+
+    try {
+      assertEquals(List.of("name7", "name42"), concurrent.createStreams(streams));
+    } finally {
+      concurrent.close();
+    }
+    verify(this.jsm, times(50)).addStream(any(StreamConfiguration.class));
+    // the management context is created once
+    verify(this.natsCo, times(1)).jetStreamManagement();
+  }
+
+  @Test
+  void testWritesAreRateLimited() throws IOException, JetStreamApiException {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    NatsConnection limited = new NatsConnection(this.natsCo, 1, ApiRateLimiter.unlimited(),
+        new ApiRateLimiter(100, 2).register(registry, "write"));
+    List<StreamConfiguration> streams = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      streams.add(StreamConfiguration.builder().name("name" + i).build());
+    }
+
+    long start = System.nanoTime();
+    assertTrue(limited.createStreams(streams).isEmpty());
+
+    // a burst of 2, then one call every 10ms
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(70));
+    assertEquals(8, registry.get("jetstream.api.calls.throttled").tag("kind", "write").counter().count());
+    assertEquals(0, registry.get("jetstream.api.calls.queued").tag("kind", "write").gauge().value());
+    verify(this.jsm, times(10)).addStream(any(StreamConfiguration.class));
+  }
+
+  @Test
+  void testListingPagesAreRateLimited() throws IOException, JetStreamApiException {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    NatsConnection limited = new NatsConnection(this.natsCo, 1,
+        new ApiRateLimiter(100, 1).register(registry, "read"), ApiRateLimiter.unlimited());
+    // 3 pages of 256 streams
+    when(this.jsm.getStreams()).thenReturn(Collections.nCopies(600, mock(StreamInfo.class)));
+
+    long start = System.nanoTime();
+    assertEquals(600, limited.getAllStreams().size());
+    assertEquals(600, limited.getAllStreams().size());
+
+    // a permit per page, one every 10ms after the first one
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+    assertEquals(3, registry.get("jetstream.api.calls.throttled").tag("kind", "read").counter().count());
+    limited.close();
+  }
+
+  @Test
+  void testLeaseBucketCreatedWhenMissing() throws IOException, JetStreamApiException {
+    KeyValueManagement kvm = mock(KeyValueManagement.class);
+    KeyValue keyValue = mock(KeyValue.class);
+    JetStreamApiException notFound = mock(JetStreamApiException.class);
+    when(notFound.getApiErrorCode()).thenReturn(10059);
+    when(this.natsCo.keyValueManagement(any(KeyValueOptions.class))).thenReturn(kvm);
+    when(this.natsCo.keyValue(eq("leases"), any(KeyValueOptions.class))).thenReturn(keyValue);
+    when(kvm.getStatus("leases")).thenThrow(notFound);
+
+    assertSame(keyValue, this.nc.leaseBucket("leases", Duration.ofSeconds(10), 3));
+
+    verify(kvm).create(argThat(config -> "leases".equals(config.getBucketName())
+        && Duration.ofSeconds(10).equals(config.getTtl()) && config.getMaxHistoryPerKey() == 1
+        && config.getReplicas() == 3));
+  }
+
+  @Test
+  void testConnectionOptionsFromConfig() throws IOException, InterruptedException {
+    NatsConnectionOptions options = new NatsConnectionOptions(Optional.empty(), Duration.ofSeconds(5),
+        Duration.ofSeconds(20), Duration.ofSeconds(10), Duration.ofMillis(500), -1, Optional.empty(), Optional.empty(),
+        Optional.empty(), Optional.empty());
+
+    NatsConnection configured = new NatsConnection("nats://a:4222,nats://b:4222", Optional.empty(), "hub", options,
+        1, ApiRateLimiter.unlimited(), ApiRateLimiter.unlimited());
+
+    mockedNats.verify(() -> Nats.connect(argThat((Options connectOptions) -> connectOptions.getServers().size() == 2
+        && Duration.ofSeconds(5).equals(connectOptions.getConnectionTimeout())
+        && Duration.ofSeconds(20).equals(connectOptions.getPingInterval())
+        && Duration.ofMillis(500).equals(connectOptions.getReconnectWait())
+        && connectOptions.getMaxReconnect() == -1
+        && connectOptions.getConnectionListener() == configured)));
+    JetStreamOptions jetStreamOptions = options.jetStreamOptions("hub");
+    assertEquals(Duration.ofSeconds(10), jetStreamOptions.getRequestTimeout());
+    assertEquals("$JS.hub.API.", jetStreamOptions.getPrefix());
+  }
+
+  @Test
+  void testCallsFailUntilConnected() throws IOException, InterruptedException {
+    NatsConnection connecting = new NatsConnection("", new NatsConnectionOptions(), 1, 0, 0, 1,
+        new SimpleMeterRegistry());
+    Runnable listener = mock(Runnable.class);
+    connecting.onConnect(listener);
+
+    assertFalse(connecting.isConnected());
+    assertThrows(IOException.class, connecting::getStreamNames);
+    verify(listener, never()).run();
+
+    connecting.connectionEvent(this.natsCo, Events.CONNECTED);
+
+    assertTrue(connecting.isConnected());
+    verify(listener, timeout(1000)).run();
+    // registered once connected, run at once
+    Runnable lateListener = mock(Runnable.class);
+    connecting.onConnect(lateListener);
+    verify(lateListener, timeout(1000)).run();
+    verify(listener, times(1)).run();
+  }
+
+  @Test
+  void testReconnectListenersRunOnReconnection() {
+    Runnable listener = mock(Runnable.class);
+    Runnable failingListener = mock(Runnable.class);
+    doThrow(new IllegalStateException("Queue closed")).when(failingListener).run();
+    this.nc.onReconnect(failingListener);
+    this.nc.onReconnect(listener);
+
+    this.nc.connectionEvent(this.natsCo, Events.DISCONNECTED);
+    verify(listener, never()).run();
+
+    this.nc.connectionEvent(this.natsCo, Events.RECONNECTED);
+    verify(failingListener).run();
+    verify(listener).run();
+  }
+
   private List<StreamConfiguration> createStreams() {
     List<StreamConfiguration> streams = new ArrayList<>();
 
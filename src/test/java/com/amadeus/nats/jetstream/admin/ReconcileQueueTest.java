@@ -0,0 +1,174 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ReconcileQueueTest {
+
+  private static final int MAX_ATTEMPTS = 5;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private final List<Set<String>> reconciled = new ArrayList<>();
+
+  private ReconcileQueue queue;
+
+  @AfterEach
+  public void tearDown() {
+    this.queue.close();
+  }
+
+  @Test
+  void testTriggersCoalescedAndSingleFlight() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    this.queue = queue((streams, keyValues) -> {
+      record(streams);
+      started.countDown();
+      await(release);
+      done.countDown();
+      return List.of();
+    });
+
+    this.queue.enqueue(Set.of("orders"), Set.of());
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    // triggered again while in flight: reconciled once more afterwards, not concurrently
+    this.queue.enqueue(Set.of("orders"), Set.of());
+    this.queue.enqueue(Set.of("orders"), Set.of());
+    assertEquals(1, this.queue.depth());
+    release.countDown();
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertEquals(List.of(Set.of("orders"), Set.of("orders")), reconciled());
+  }
+
+  @Test
+  void testFailuresRetriedWithBackoff() throws InterruptedException {
+    AtomicInteger attempts = new AtomicInteger();
+    CountDownLatch succeeded = new CountDownLatch(1);
+    this.queue = queue((streams, keyValues) -> {
+      if (attempts.incrementAndGet() < 3) {
+        return List.of(ReconcileQueue.key(ReconcileQueue.Kind.STREAM, "orders"));
+      }
+      succeeded.countDown();
+      return List.of();
+    });
+
+    this.queue.enqueue(Set.of("orders"), Set.of());
+
+    assertTrue(succeeded.await(1, TimeUnit.SECONDS));
+    assertEquals(3, attempts.get());
+    assertEquals(2, this.registry.get("jetstream.reconcile.queue.retries").counter().count());
+  }
+
+  @Test
+  void testFailuresKeyedByKind() throws InterruptedException {
+    AtomicInteger streamAttempts = new AtomicInteger();
+    AtomicInteger keyValueAttempts = new AtomicInteger();
+    CountDownLatch succeeded = new CountDownLatch(1);
+    this.queue = queue((streams, keyValues) -> {
+      if (!keyValues.isEmpty()) {
+        keyValueAttempts.incrementAndGet();
+      }
+      if (streams.isEmpty()) {
+        return List.of();
+      }
+      if (streamAttempts.incrementAndGet() < 3) {
+        return List.of(ReconcileQueue.key(ReconcileQueue.Kind.STREAM, "orders"));
+      }
+      succeeded.countDown();
+      return List.of();
+    });
+
+    this.queue.enqueue(Set.of("orders"), Set.of("orders"));
+
+    assertTrue(succeeded.await(1, TimeUnit.SECONDS));
+    // the bucket of the same name succeeded, only the stream is retried
+    assertEquals(3, streamAttempts.get());
+    assertEquals(1, keyValueAttempts.get());
+  }
+
+  @Test
+  void testGivesUpAfterMaxAttempts() throws InterruptedException {
+    AtomicInteger attempts = new AtomicInteger();
+    this.queue = queue((streams, keyValues) -> {
+      attempts.incrementAndGet();
+      return List.of(ReconcileQueue.key(ReconcileQueue.Kind.STREAM, "orders"));
+    });
+
+    this.queue.enqueue(Set.of("orders"), Set.of());
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (this.registry.get("jetstream.reconcile.queue.dropped").counter().count() < 1) {
+      assertTrue(System.nanoTime() - deadline < 0, "entity never given up");
+      Thread.sleep(10);
+    }
+    assertEquals(MAX_ATTEMPTS, attempts.get());
+    assertEquals(MAX_ATTEMPTS - 1, this.registry.get("jetstream.reconcile.queue.retries").counter().count());
+    assertEquals(0, this.queue.depth());
+  }
+
+  @Test
+  void testCriticalEntitiesFirst() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+    this.queue = new ReconcileQueue((streams, keyValues) -> {
+      record(streams);
+      started.countDown();
+      await(release);
+      done.countDown();
+      return List.of();
+    }, (kind, name) -> name.startsWith("critical") ? 0 : 2, Duration.ofMillis(10), Duration.ofSeconds(1),
+        MAX_ATTEMPTS, this.registry);
+
+    this.queue.enqueue(Set.of("first"), Set.of());
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    List<String> fleet = new ArrayList<>();
+    for (int i = 0; i < ReconcileQueue.MAX_BATCH; i++) {
+      fleet.add("stream" + i);
+    }
+    this.queue.enqueue(fleet, Set.of());
+    this.queue.enqueue(Set.of("critical"), Set.of());
+    release.countDown();
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertTrue(reconciled().get(1).contains("critical"));
+    assertEquals(ReconcileQueue.MAX_BATCH, reconciled().get(1).size());
+    assertEquals(1, reconciled().get(2).size());
+  }
+
+  private ReconcileQueue queue(ReconcileQueue.Reconciler reconciler) {
+    return new ReconcileQueue(reconciler, (kind, name) -> 0, Duration.ofMillis(10), Duration.ofSeconds(1),
+        MAX_ATTEMPTS, this.registry);
+  }
+
+  private synchronized void record(Set<String> streams) {
+    this.reconciled.add(streams);
+  }
+
+  private synchronized List<Set<String>> reconciled() {
+    return new ArrayList<>(this.reconciled);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
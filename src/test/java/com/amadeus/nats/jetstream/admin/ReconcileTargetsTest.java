@@ -0,0 +1,134 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import com.amadeus.nats.jetstream.admin.model.JetstreamConfigs;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ReconcileTargetsTest {
+
+  private static final int FLEET = 100;
+
+  private final InMemoryJetStream primary = new InMemoryJetStream();
+
+  private final InMemoryJetStream europe = new InMemoryJetStream();
+
+  private final MeterRegistry registry = new SimpleMeterRegistry();
+
+  private JetstreamConfigs configs;
+
+  private ReconcileTargets targets;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  @BeforeEach
+  public void setUp() {
+    this.configs = new JetstreamConfigs();
+    for (int i = 0; i < FLEET; i++) {
+      StreamConfig streamConfig = new StreamConfig();
+      streamConfig.setStreamName("stream" + i);
+      streamConfig.setSubjects(List.of("tenant" + i + ".>"));
+      streamConfig.setReplicas(3);
+      this.configs.getStreamConfigs().add(streamConfig);
+    }
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.scheduler.close();
+    this.targets.stop();
+  }
+
+  @Test
+  void testEveryTargetReconciled() {
+    createScheduler(Map.of("europe", this.europe::natsConnection));
+
+    this.scheduler.updateStreams();
+
+    assertEquals(FLEET, this.primary.size());
+    await(() -> this.europe.size() == FLEET);
+    await(() -> runs("europe", "executed") == 1);
+    assertEquals(1, runs(ReconcileTargets.DEFAULT_TARGET, "executed"));
+    assertEquals(1, this.registry.get("jetstream.reconcile.duration").tag("target", "europe").timer().count());
+
+    // entities changed on the default target only are reconciled on every connected target
+    this.europe.clear();
+    this.scheduler.enqueue(Set.of("stream1"), Set.of());
+    await(() -> this.europe.getStream("stream1") != null);
+  }
+
+  @Test
+  void testUnreachableTargetDoesNotBlockOthers() {
+    createScheduler(Map.of("america", () -> {
+      throw new IOException("Unable to connect to NATS servers");
+    }, "europe", this.europe::natsConnection));
+    this.europe.failWritesOf("stream7");
+
+    this.scheduler.updateStreams();
+
+    assertEquals(FLEET, this.primary.size());
+    await(() -> this.europe.size() == FLEET - 1);
+    await(() -> runs("america", "failed") == 1);
+    await(() -> runs("europe", "failed") == 1);
+    assertEquals(0, runs(ReconcileTargets.DEFAULT_TARGET, "failed"));
+    assertNull(this.europe.getStream("stream7"));
+    assertNotNull(this.primary.getStream("stream7"));
+  }
+
+  @Test
+  void testDefaultTargetNameReserved() {
+    assertThrows(IllegalArgumentException.class, () -> new ReconcileTargets(
+        Map.of(ReconcileTargets.DEFAULT_TARGET, this.europe::natsConnection), this.registry));
+    this.targets = new ReconcileTargets();
+    this.scheduler = createScheduler(this.targets);
+  }
+
+  private void createScheduler(Map<String, ReconcileTargets.Connector> connectors) {
+    this.targets = new ReconcileTargets(connectors, this.registry);
+    this.scheduler = createScheduler(this.targets);
+  }
+
+  private JetstreamUpdatesScheduler createScheduler(ReconcileTargets reconcileTargets) {
+    NatsConnection nc = this.primary.natsConnection();
+    return new JetstreamUpdatesScheduler(nc, () -> this.configs, new ReconcileSnapshotStore(Optional.empty()),
+        new UpdateStager(nc), new ServerStateCache(nc), new LeaderElection(), new ShardMembership(), reconcileTargets,
+        this.registry, false, Duration.ofMinutes(30), Duration.ofMinutes(5), Duration.ofMinutes(5),
+        JetstreamUpdatesScheduler.INVENTORY_FULL, Duration.ofSeconds(1), Duration.ofMinutes(5), 10);
+  }
+
+  private double runs(String target, String result) {
+    return this.registry.get("jetstream.reconcile.runs").tag("target", target).tag("result", result).counter()
+        .count();
+  }
+
+  private static void await(BooleanSupplier condition) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() - deadline < 0, "condition not met in time");
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+}
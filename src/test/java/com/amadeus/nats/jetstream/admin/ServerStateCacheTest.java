@@ -0,0 +1,153 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import io.nats.client.JetStreamApiException;
+import io.nats.client.Message;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.StorageType;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ServerStateCacheTest {
+
+  private NatsConnection nc;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  private LeaderElection leaderElection;
+
+  private ShardMembership shards;
+
+  private ServerStateCache cache;
+
+  @BeforeEach
+  public void setUp() throws IOException, JetStreamApiException {
+    this.nc = mock(NatsConnection.class);
+    this.scheduler = mock(JetstreamUpdatesScheduler.class);
+    this.leaderElection = mock(LeaderElection.class);
+    when(this.leaderElection.isLeader()).thenReturn(true);
+    this.shards = mock(ShardMembership.class);
+    when(this.shards.ownsStream(any())).thenReturn(true);
+    when(this.shards.ownsKeyValue(any())).thenReturn(true);
+    when(this.nc.getAllStreams()).thenReturn(List.of(stream("orders", 3),
+        InMemoryJetStream.streamInfo(KeyValueConfiguration.builder().name("cache").storageType(StorageType.Memory)
+            .build().getBackingConfig())));
+    this.cache = new ServerStateCache(this.nc, this.scheduler, this.leaderElection, this.shards, true,
+        Duration.ofHours(6), Duration.ofMinutes(30));
+    this.cache.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.cache.stop();
+  }
+
+  @Test
+  void testReadsFromMemoryOnceListed() throws IOException, JetStreamApiException {
+    assertEquals(1, this.cache.getStreams().size());
+    assertEquals("cache", this.cache.getKeyValues().get(0).getBucketName());
+    assertEquals(1, this.cache.getStreams(List.of("orders", "payments")).size());
+    assertEquals(1, this.cache.getKeyValues(List.of("cache")).size());
+
+    verify(this.nc, times(1)).getAllStreams();
+
+    this.cache.invalidate();
+    this.cache.getStreams();
+    verify(this.nc, times(2)).getAllStreams();
+  }
+
+  @Test
+  void testAdvisoryRepairsTheEntity() throws IOException, JetStreamApiException {
+    this.cache.getStreams();
+    StreamInfo edited = stream("orders", 1);
+    when(this.nc.getStreamsConfig(anyCollection())).thenReturn(List.of(edited));
+
+    this.cache.onMessage(advisory(ServerStateCache.UPDATED, "orders"));
+
+    verify(this.scheduler, timeout(1000)).enqueue(Set.of("orders"), Set.of());
+    assertEquals(1, this.cache.getStreams().get(0).getConfiguration().getReplicas());
+  }
+
+  @Test
+  void testDeletedBucketIsRepaired() throws IOException, JetStreamApiException {
+    this.cache.getStreams();
+    when(this.nc.getStreamsConfig(anyCollection())).thenReturn(List.of());
+
+    this.cache.onMessage(advisory(ServerStateCache.DELETED, "KV_cache"));
+
+    verify(this.scheduler, timeout(1000)).enqueue(Set.of(), Set.of("cache"));
+    assertTrue(this.cache.getKeyValues().isEmpty());
+  }
+
+  @Test
+  void testSelfAppliedDeleteNotRepaired() throws IOException, JetStreamApiException {
+    this.cache.getStreams();
+    when(this.nc.isRecentlyWritten("orders")).thenReturn(true);
+    when(this.nc.getStreamsConfig(anyCollection())).thenReturn(List.of());
+
+    this.cache.onMessage(advisory(ServerStateCache.DELETED, "orders"));
+
+    verify(this.scheduler, after(500).never()).enqueue(any(), any());
+    assertTrue(this.cache.getStreams().isEmpty());
+  }
+
+  @Test
+  void testFollowerDoesNotLookUp() throws IOException, JetStreamApiException {
+    this.cache.getStreams();
+    when(this.leaderElection.isLeader()).thenReturn(false);
+
+    this.cache.onMessage(advisory(ServerStateCache.UPDATED, "orders"));
+
+    verify(this.scheduler, after(500).never()).enqueue(any(), any());
+    verify(this.nc, never()).getStreamsConfig(anyCollection());
+    // listed again once elected
+    this.cache.getStreams();
+    verify(this.nc, times(2)).getAllStreams();
+  }
+
+  @Test
+  void testStreamOfAnotherShardNotLookedUp() throws IOException, JetStreamApiException {
+    this.cache.getStreams();
+    when(this.shards.ownsStream("orders")).thenReturn(false);
+
+    this.cache.onMessage(advisory(ServerStateCache.UPDATED, "orders"));
+
+    verify(this.scheduler, after(500).never()).enqueue(any(), any());
+    verify(this.nc, never()).getStreamsConfig(anyCollection());
+
+    // listed again when the shards change
+    when(this.shards.getVersion()).thenReturn(1L);
+    this.cache.getStreams();
+    verify(this.nc, times(2)).getAllStreams();
+  }
+
+  private static StreamInfo stream(String name, int replicas) {
+    return InMemoryJetStream.streamInfo(StreamConfiguration.builder().name(name).subjects(name + ".>")
+        .replicas(replicas).build());
+  }
+
+  private static Message advisory(String action, String streamName) {
+    Message message = mock(Message.class);
+    when(message.getSubject()).thenReturn(ServerStateCache.ADVISORY_PREFIX + action + "." + streamName);
+    return message;
+  }
+}
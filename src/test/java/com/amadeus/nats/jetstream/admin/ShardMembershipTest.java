@@ -0,0 +1,127 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.KeyValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ShardMembershipTest {
+
+  private static final String BUCKET = "jetstream-controller-members";
+
+  private static final int ENTITIES = 1_000;
+
+  private NatsConnection nc;
+
+  private JetstreamUpdatesScheduler scheduler;
+
+  private KeyValue keyValue;
+
+  private MeterRegistry registry;
+
+  private ShardMembership shards;
+
+  @BeforeEach
+  public void setUp() throws IOException, JetStreamApiException {
+    this.nc = mock(NatsConnection.class);
+    this.scheduler = mock(JetstreamUpdatesScheduler.class);
+    this.keyValue = mock(KeyValue.class);
+    this.registry = new SimpleMeterRegistry();
+    when(this.nc.leaseBucket(BUCKET, Duration.ofHours(1), 1)).thenReturn(this.keyValue);
+    // heartbeats are run by the tests themselves after the first one
+    this.shards = new ShardMembership(this.nc, this.scheduler, this.registry, true, BUCKET, Duration.ofHours(1),
+        Duration.ofHours(1), 64, 1, Optional.of("controller-0"), false);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.shards.stop();
+  }
+
+  @Test
+  void testSliceFollowsMembers() throws Exception {
+    when(this.keyValue.keys()).thenReturn(List.of("controller-0"));
+    assertFalse(this.shards.ownsStream("orders"));
+
+    this.shards.start();
+
+    verify(this.scheduler, timeout(1000)).updateStreams();
+    verify(this.keyValue).put("controller-0", "controller-0".getBytes(StandardCharsets.UTF_8));
+    assertEquals(ENTITIES, ownedStreams());
+    assertEquals(1, this.registry.get("jetstream.shard.members").gauge().value());
+
+    when(this.keyValue.keys()).thenReturn(List.of("controller-0", "controller-1"));
+    long version = this.shards.getVersion();
+    this.shards.heartbeat();
+
+    assertTrue(this.shards.getVersion() > version);
+    verify(this.scheduler, timeout(1000).times(2)).updateStreams();
+    int owned = ownedStreams();
+    assertTrue(owned > ENTITIES / 4 && owned < ENTITIES * 3 / 4, "owned " + owned);
+
+    // unchanged members, nothing to rebalance
+    version = this.shards.getVersion();
+    this.shards.heartbeat();
+    assertEquals(version, this.shards.getVersion());
+    verify(this.scheduler, times(2)).updateStreams();
+  }
+
+  @Test
+  void testMembershipLeftOnStop() throws IOException, JetStreamApiException, InterruptedException {
+    when(this.keyValue.keys()).thenReturn(List.of("controller-0"));
+    this.shards.start();
+    verify(this.scheduler, timeout(1000)).updateStreams();
+
+    this.shards.stop();
+
+    assertEquals(0, ownedStreams());
+    verify(this.keyValue).delete("controller-0");
+  }
+
+  @Test
+  void testExclusiveWithLeaderElection() {
+    assertThrows(IllegalArgumentException.class, () -> new ShardMembership(this.nc, this.scheduler,
+        new SimpleMeterRegistry(), true, BUCKET, Duration.ofHours(1), Duration.ofHours(1), 64, 1,
+        Optional.of("controller-1"), true));
+  }
+
+  @Test
+  void testDisabledShardingOwnsEverything() {
+    ShardMembership disabled = new ShardMembership();
+
+    assertTrue(disabled.ownsStream("orders"));
+    assertTrue(disabled.ownsKeyValue("cache"));
+    assertEquals(Set.of(), disabled.getReservedKeyValues());
+    assertEquals(Set.of(BUCKET), this.shards.getReservedKeyValues());
+  }
+
+  private int ownedStreams() {
+    int owned = 0;
+    for (int i = 0; i < ENTITIES; i++) {
+      if (this.shards.ownsStream("stream" + i)) {
+        owned++;
+      }
+    }
+    return owned;
+  }
+}
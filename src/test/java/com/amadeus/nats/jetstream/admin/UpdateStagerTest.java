@@ -0,0 +1,167 @@
+package com.amadeus.nats.jetstream.admin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.amadeus.nats.jetstream.admin.comparators.ReconcilePlan;
+import com.amadeus.nats.jetstream.admin.comparators.SemanticDiff;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.api.ClusterInfo;
+import io.nats.client.api.Replica;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+import io.nats.client.api.StreamState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class UpdateStagerTest {
+
+  private static final long GIB = 1L << 30;
+
+  private NatsConnection nc;
+
+  private List<StreamInfo> current;
+
+  @BeforeEach
+  public void setUp() {
+    this.nc = mock(NatsConnection.class);
+    this.current = List.of(
+        streamInfo("big1", 1, 2 * GIB, true),
+        streamInfo("big2", 1, 2 * GIB, true),
+        streamInfo("small", 1, 1024, true),
+        streamInfo("old", 3, 2 * GIB, true));
+  }
+
+  @Test
+  void testHeavyUpdatesAppliedInWaves() throws IOException, JetStreamApiException {
+    UpdateStager stager = new UpdateStager(this.nc, GIB, 5 * GIB, Duration.ofSeconds(10));
+    StreamInfo lagging = streamInfo("big1", 3, 2 * GIB, false);
+    StreamInfo caughtUp = streamInfo("big1", 3, 2 * GIB, true);
+    when(this.nc.getStreamsConfig(anyCollection())).thenReturn(List.of(lagging), List.of(caughtUp));
+
+    // each run returns at once, the next wave being started by the run which sees the previous one caught up
+    assertEquals(List.of("big2", "big1"), stager.updateStreams(plan(), this.current));
+    assertEquals(List.of("big2", "big1"), stager.updateStreams(plan("small", "big2", "old"), this.current));
+    assertEquals(List.of("big2"), stager.updateStreams(plan("small", "big2", "old"), this.current));
+
+    InOrder inOrder = inOrder(this.nc);
+    // a max age change of a large stream does not move data
+    inOrder.verify(this.nc).updateStreams(named("small", "old"));
+    inOrder.verify(this.nc).updateStreams(named("big1"));
+    inOrder.verify(this.nc, times(2)).getStreamsConfig(anyCollection());
+    inOrder.verify(this.nc).updateStreams(named("big2"));
+  }
+
+  @Test
+  void testWavesDeferredWhenNotCaughtUp() throws IOException, JetStreamApiException {
+    UpdateStager stager = new UpdateStager(this.nc, GIB, 5 * GIB, Duration.ZERO);
+    StreamInfo lagging = streamInfo("big1", 3, 2 * GIB, false);
+    when(this.nc.getStreamsConfig(anyCollection())).thenReturn(List.of(lagging));
+
+    Set<String> staged = new HashSet<>();
+    List<String> failures = stager.updateStreams(plan(), this.current, staged);
+
+    assertEquals(List.of("big2", "big1"), failures);
+    // left to the next run instead of being retried while the first wave catches up
+    assertEquals(Set.of("big1", "big2"), staged);
+    verify(this.nc, never()).updateStreams(named("big2"));
+  }
+
+  @Test
+  void testNextWaveStartedAfterCatchUpTimeout() throws IOException, JetStreamApiException {
+    UpdateStager stager = new UpdateStager(this.nc, GIB, 5 * GIB, Duration.ZERO);
+    StreamInfo lagging = streamInfo("big1", 3, 2 * GIB, false);
+    when(this.nc.getStreamsConfig(anyCollection())).thenReturn(List.of(lagging));
+
+    stager.updateStreams(plan(), this.current);
+    List<String> failures = stager.updateStreams(plan("big2"), this.current);
+
+    // a replica which never catches up does not hold back the next waves
+    assertEquals(List.of("big2"), failures);
+    verify(this.nc).updateStreams(named("big2"));
+  }
+
+  @Test
+  void testReplicaDecreaseNotStaged() throws IOException, JetStreamApiException {
+    UpdateStager stager = new UpdateStager(this.nc, GIB, 5 * GIB, Duration.ofSeconds(10));
+    ReconcilePlan<StreamConfiguration> plan = new ReconcilePlan<>(List.of(), List.of(stream("old", 1)), List.of(),
+        Map.of("old", List.of(SemanticDiff.REPLICAS)));
+
+    assertTrue(stager.updateStreams(plan, this.current).isEmpty());
+
+    verify(this.nc).updateStreams(named("old"));
+    verify(this.nc, never()).getStreamsConfig(anyCollection());
+  }
+
+  @Test
+  void testDisabledStagerAppliesEverythingAtOnce() {
+    new UpdateStager(this.nc).updateStreams(plan(), this.current);
+
+    verify(this.nc).updateStreams(named("big1", "small", "big2", "old"));
+  }
+
+  private static List<StreamConfiguration> named(String... names) {
+    return argThat(streams -> streams.stream().map(StreamConfiguration::getName).collect(Collectors.toList())
+        .equals(List.of(names)));
+  }
+
+  private static ReconcilePlan<StreamConfiguration> plan() {
+    return plan("big1", "small", "big2", "old");
+  }
+
+  /**
+   * Plan of the given updates among big1, small, big2 and old.
+   */
+  private static ReconcilePlan<StreamConfiguration> plan(String... names) {
+    List<StreamConfiguration> toUpdate = new ArrayList<>();
+    for (String name : names) {
+      toUpdate.add(stream(name, 3));
+    }
+    return new ReconcilePlan<>(List.of(), toUpdate, List.of(), Map.of(
+        "big1", List.of(SemanticDiff.REPLICAS),
+        "big2", List.of(SemanticDiff.REPLICAS),
+        "small", List.of(SemanticDiff.REPLICAS),
+        "old", List.of(SemanticDiff.MAX_AGE)));
+  }
+
+  private static StreamConfiguration stream(String name, int replicas) {
+    return StreamConfiguration.builder().name(name).subjects(name + ".>").replicas(replicas).build();
+  }
+
+  private static StreamInfo streamInfo(String name, int replicas, long bytes, boolean current) {
+    StreamInfo streamInfo = mock(StreamInfo.class);
+    StreamConfiguration configuration = stream(name, replicas);
+    when(streamInfo.getConfiguration()).thenReturn(configuration);
+    StreamState state = mock(StreamState.class);
+    when(state.getByteCount()).thenReturn(bytes);
+    when(streamInfo.getStreamState()).thenReturn(state);
+    List<Replica> followers = new ArrayList<>();
+    for (int i = 1; i < replicas; i++) {
+      Replica replica = mock(Replica.class);
+      when(replica.isCurrent()).thenReturn(current);
+      followers.add(replica);
+    }
+    ClusterInfo clusterInfo = mock(ClusterInfo.class);
+    when(clusterInfo.getReplicas()).thenReturn(followers);
+    when(streamInfo.getClusterInfo()).thenReturn(clusterInfo);
+    return streamInfo;
+  }
+}
@@ -0,0 +1,170 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amadeus.nats.jetstream.admin.model.KeyValueConfig;
+import com.amadeus.nats.jetstream.admin.model.StreamConfig;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.RetentionPolicy;
+import io.nats.client.api.StorageType;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+import org.junit.jupiter.api.Test;
+
+class ReconcilePlannerTest {
+
+  @Test
+  void testStreamsPlannedInOnePass() {
+    List<StreamInfo> current = List.of(
+        streamInfo("Orders", 3, "orders.>"),
+        streamInfo("payments", 1, "payments.>"),
+        streamInfo("legacy", 1, "legacy.>"));
+    List<StreamConfig> desired = List.of(
+        streamConfig("orders", 3, "orders.>"),
+        streamConfig("payments", 3, "payments.>"),
+        streamConfig("invoices", 1, "invoices.>"));
+
+    ReconcilePlan<StreamConfiguration> plan = ReconcilePlanner.planStreams(current, desired, true);
+
+    assertEquals(List.of("invoices"), names(plan.getToCreate()));
+    assertEquals(List.of("payments"), names(plan.getToUpdate()));
+    assertEquals(List.of(SemanticDiff.REPLICAS), plan.getDifferences().get("payments"));
+    assertEquals(List.of("legacy"), names(plan.getToDelete()));
+    assertThrows(UnsupportedOperationException.class, () -> plan.getToCreate().clear());
+
+    assertTrue(ReconcilePlanner.planStreams(current, desired, false).getToDelete().isEmpty());
+  }
+
+  @Test
+  void testKeyValuesPlannedInOnePass() {
+    List<KeyValueConfiguration> current = List.of(
+        KeyValueConfiguration.builder().name("cache").storageType(StorageType.Memory).replicas(1).build(),
+        KeyValueConfiguration.builder().name("legacy").storageType(StorageType.File).replicas(1).build());
+    List<KeyValueConfig> desired = List.of(keyValueConfig("CACHE", 3), keyValueConfig("sessions", 1));
+
+    ReconcilePlan<KeyValueConfiguration> plan = ReconcilePlanner.planKeyValues(current, desired, true);
+
+    assertEquals(1, plan.getToCreate().size());
+    assertEquals("sessions", plan.getToCreate().get(0).getBucketName());
+    assertEquals(1, plan.getToUpdate().size());
+    assertEquals("CACHE", plan.getToUpdate().get(0).getBucketName());
+    assertEquals(1, plan.getToDelete().size());
+    assertEquals("legacy", plan.getToDelete().get(0).getBucketName());
+  }
+
+  @Test
+  void testMissingKeyValueListPlansNoBucket() {
+    List<KeyValueConfiguration> current = List.of(
+        KeyValueConfiguration.builder().name("legacy").storageType(StorageType.File).replicas(1).build());
+
+    ReconcilePlan<KeyValueConfiguration> plan = ReconcilePlanner.planKeyValues(current, null, true);
+
+    assertTrue(plan.getToCreate().isEmpty());
+    assertTrue(plan.getToUpdate().isEmpty());
+    assertEquals("legacy", plan.getToDelete().get(0).getBucketName());
+  }
+
+  @Test
+  void testLargeFleetWithoutChangeGivesEmptyPlan() {
+    List<StreamInfo> current = new ArrayList<>();
+    List<StreamConfig> desired = new ArrayList<>();
+    for (int i = 0; i < 5_000; i++) {
+      current.add(streamInfo("stream" + i, 1, "subject" + i + ".>"));
+      desired.add(streamConfig("stream" + i, 1, "subject" + i + ".>"));
+    }
+
+    assertTrue(ReconcilePlanner.planStreams(current, desired, true).isEmpty());
+  }
+
+  @Test
+  void testFingerprintCacheTracksEntitiesInSync() {
+    FingerprintCache cache = new FingerprintCache();
+    List<StreamInfo> current = List.of(streamInfo("orders", 3, "orders.>"), streamInfo("payments", 3, "payments.>"));
+    List<StreamConfig> desired = new ArrayList<>(List.of(streamConfig("orders", 3, "orders.>"),
+        streamConfig("payments", 3, "payments.>")));
+
+    assertTrue(ReconcilePlanner.planStreams(current, desired, true, cache).isEmpty());
+    assertEquals(2, cache.size());
+    assertTrue(ReconcilePlanner.planStreams(current, desired, true, cache).isEmpty());
+
+    // a desired change is still seen, and the entity leaves the cache until found in sync again
+    desired.set(0, streamConfig("orders", 1, "orders.>"));
+    assertEquals(List.of("orders"), names(ReconcilePlanner.planStreams(current, desired, true, cache).getToUpdate()));
+    assertEquals(1, cache.size());
+
+    // a server change is seen as well
+    List<StreamInfo> changed = List.of(streamInfo("orders", 3, "orders.>"), streamInfo("payments", 1, "payments.>"));
+    assertEquals(List.of("payments"), names(ReconcilePlanner.planStreams(changed, desired.subList(1, 2), true, cache)
+        .getToUpdate()));
+
+    // removed entities are evicted
+    ReconcilePlanner.planStreams(current, desired.subList(1, 2), true, cache);
+    assertEquals(1, cache.size());
+    ReconcilePlanner.planStreams(current, List.of(), true, cache);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void testNamesInventoryDiff() {
+    FingerprintCache cache = new FingerprintCache();
+    ReconcilePlanner.planStreams(List.of(streamInfo("orders", 3, "orders.>"), streamInfo("legacy", 1, "legacy.>")),
+        List.of(streamConfig("orders", 3, "orders.>"), streamConfig("legacy", 1, "legacy.>")), true, cache);
+    assertEquals(2, cache.size());
+
+    InventoryDiff diff = ReconcilePlanner.diffNames(List.of("Orders", "legacy", "payments"),
+        List.of("orders", "invoices", "payments"), cache);
+
+    assertEquals(Map.of("Orders", "orders", "payments", "payments"), diff.getFound());
+    assertEquals(Set.of("invoices"), diff.getMissing());
+    assertEquals(List.of("legacy"), diff.getUnknown());
+    assertEquals(1, cache.size());
+  }
+
+  private static List<String> names(List<StreamConfiguration> configurations) {
+    List<String> names = new ArrayList<>();
+    configurations.forEach(configuration -> names.add(configuration.getName()));
+    return names;
+  }
+
+  private static StreamInfo streamInfo(String name, int replicas, String subject) {
+    StreamInfo streamInfo = mock(StreamInfo.class);
+    when(streamInfo.getConfiguration()).thenReturn(StreamConfiguration.builder()
+        .name(name)
+        .subjects(subject)
+        .replicas(replicas)
+        .storageType(StorageType.File)
+        .retentionPolicy(RetentionPolicy.Limits)
+        .maxAge(Duration.ofSeconds(60))
+        .build());
+    return streamInfo;
+  }
+
+  private static StreamConfig streamConfig(String name, int replicas, String subject) {
+    StreamConfig streamConfig = new StreamConfig();
+    streamConfig.setStreamName(name);
+    streamConfig.setSubjects(List.of(subject));
+    streamConfig.setReplicas(replicas);
+    streamConfig.setStorage("file");
+    streamConfig.setRetention("limits");
+    streamConfig.setMaxAge(60);
+    return streamConfig;
+  }
+
+  private static KeyValueConfig keyValueConfig(String name, int replicas) {
+    KeyValueConfig keyValueConfig = new KeyValueConfig();
+    keyValueConfig.setName(name);
+    keyValueConfig.setStorage("memory");
+    keyValueConfig.setReplicas(replicas);
+    return keyValueConfig;
+  }
+}
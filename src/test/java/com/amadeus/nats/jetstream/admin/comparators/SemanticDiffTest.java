@@ -0,0 +1,59 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.RetentionPolicy;
+import io.nats.client.api.StorageType;
+import io.nats.client.api.StreamConfiguration;
+import org.junit.jupiter.api.Test;
+
+class SemanticDiffTest {
+
+  @Test
+  void testKeyValueTtlComparedByValue() {
+    KeyValueConfiguration fromServer = KeyValueConfiguration.builder().name("cache")
+        .storageType(StorageType.Memory).replicas(3).maxHistoryPerKey(5).ttl(Duration.ofSeconds(60)).build();
+    KeyValueConfiguration fromConfig = KeyValueConfiguration.builder().name("cache")
+        .storageType(StorageType.Memory).replicas(3).maxHistoryPerKey(5).ttl(Duration.ofSeconds(60)).build();
+
+    assertTrue(SemanticDiff.ofKeyValues(fromServer, fromConfig).isEmpty());
+
+    KeyValueConfiguration changed = KeyValueConfiguration.builder().name("cache")
+        .storageType(StorageType.Memory).replicas(1).maxHistoryPerKey(5).ttl(Duration.ofSeconds(120)).build();
+    assertEquals(List.of(SemanticDiff.REPLICAS, SemanticDiff.TTL), SemanticDiff.ofKeyValues(fromServer, changed));
+  }
+
+  @Test
+  void testStreamSubjectsComparedAsSet() {
+    StreamConfiguration fromServer = StreamConfiguration.builder().name("orders").subjects("b.>", "a.>")
+        .storageType(StorageType.File).retentionPolicy(RetentionPolicy.Limits).replicas(3)
+        .maxAge(Duration.ofSeconds(600)).build();
+    StreamConfiguration fromConfig = StreamConfiguration.builder().name("orders").subjects("a.>", "b.>")
+        .storageType(StorageType.File).retentionPolicy(RetentionPolicy.Limits).replicas(3)
+        .maxAge(Duration.ofSeconds(600)).build();
+
+    assertTrue(SemanticDiff.ofStreams(fromServer, fromConfig).isEmpty());
+
+    StreamConfiguration changed = StreamConfiguration.builder().name("orders").subjects("a.>")
+        .storageType(StorageType.Memory).retentionPolicy(RetentionPolicy.Limits).replicas(3)
+        .maxAge(Duration.ofSeconds(600)).build();
+    assertEquals(List.of(SemanticDiff.SUBJECTS, SemanticDiff.STORAGE), SemanticDiff.ofStreams(fromServer, changed));
+  }
+
+  @Test
+  void testServerDefaultsAreEqualToUnsetValues() {
+    // as returned by the server for a stream created with only a name
+    StreamConfiguration fromServer = StreamConfiguration.builder().name("orders").subjects("orders")
+        .storageType(StorageType.File).retentionPolicy(RetentionPolicy.Limits).replicas(1)
+        .maxAge(Duration.ZERO).build();
+    StreamConfiguration fromConfig = StreamConfiguration.builder().name("orders")
+        .maxAge(Duration.ofSeconds(0)).build();
+
+    assertTrue(SemanticDiff.ofStreams(fromServer, fromConfig).isEmpty());
+  }
+}
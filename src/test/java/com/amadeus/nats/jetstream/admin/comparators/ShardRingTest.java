@@ -0,0 +1,57 @@
+package com.amadeus.nats.jetstream.admin.comparators;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ShardRingTest {
+
+  private static final int ENTITIES = 10_000;
+
+  @Test
+  void testEntitiesSpreadOverMembers() {
+    ShardRing ring = new ShardRing(List.of("controller-0", "controller-1", "controller-2"), 128);
+
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < ENTITIES; i++) {
+      counts.merge(ring.ownerOf("stream", "stream" + i), 1, Integer::sum);
+    }
+
+    assertEquals(3, counts.size());
+    counts.values().forEach(count -> assertTrue(count > ENTITIES / 5, "unbalanced " + counts));
+  }
+
+  @Test
+  void testMemberJoiningOnlyTakesItsShare() {
+    ShardRing before = new ShardRing(List.of("controller-0", "controller-1", "controller-2"), 128);
+    ShardRing after = new ShardRing(List.of("controller-3", "controller-1", "controller-0", "controller-2"), 128);
+
+    int moved = 0;
+    for (int i = 0; i < ENTITIES; i++) {
+      String owner = after.ownerOf("stream", "stream" + i);
+      if (!owner.equals(before.ownerOf("stream", "stream" + i))) {
+        assertEquals("controller-3", owner);
+        moved++;
+      }
+    }
+
+    assertTrue(moved > ENTITIES / 8 && moved < ENTITIES / 3, "moved " + moved);
+  }
+
+  @Test
+  void testSameRingOnEveryReplica() {
+    ShardRing ring = new ShardRing(List.of("b", "a"), 16);
+
+    assertEquals(List.of("a", "b"), ring.getMembers());
+    assertEquals(new ShardRing(List.of("a", "b"), 16).ownerOf("keyValue", "cache"), ring.ownerOf("keyValue", "cache"));
+    // names are matched case-insensitively
+    assertEquals(ring.ownerOf("stream", "orders"), ring.ownerOf("stream", "Orders"));
+    assertNull(ShardRing.EMPTY.ownerOf("stream", "orders"));
+  }
+}